@@ -0,0 +1,63 @@
+package uk.gov.hmrc.flume.instrumentation;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs at most one warning per interval, for messages that can repeat for
+ * every event at high volume. The first message of each interval is logged,
+ * with a count of the messages suppressed since the last one, and the rest
+ * are dropped after a single atomic increment.
+ *
+ * Exceptions are logged by their message alone, unless debug logging is
+ * enabled, in which case the full stack trace is included.
+ */
+public class RateLimitedLog {
+
+    private final Logger log;
+    private final long intervalNanos;
+    private final AtomicLong nextLogTime;
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public RateLimitedLog(Logger log, long intervalMillis) {
+        this.log = log;
+        this.intervalNanos = intervalMillis * 1000000L;
+        this.nextLogTime = new AtomicLong(System.nanoTime());
+    }
+
+    public void warn(String message) {
+        warn(message, null);
+    }
+
+    public void warn(String message, Throwable t) {
+        long now = System.nanoTime();
+        long next = nextLogTime.get();
+        if (now - next < 0 || !nextLogTime.compareAndSet(next, now + intervalNanos)) {
+            suppressed.incrementAndGet();
+            return;
+        }
+
+        StringBuilder text = new StringBuilder(message);
+        if (t != null && !log.isDebugEnabled()) {
+            text.append(" : ").append(t);
+        }
+        long count = suppressed.getAndSet(0);
+        if (count > 0) {
+            text.append(" (").append(count).append(" similar messages suppressed)");
+        }
+
+        if (t != null && log.isDebugEnabled()) {
+            log.warn(text, t);
+        } else {
+            log.warn(text);
+        }
+    }
+
+    /**
+     * The number of messages dropped since the last one was logged.
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+}
@@ -0,0 +1,133 @@
+package uk.gov.hmrc.flume.interceptor;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+import uk.gov.hmrc.flume.instrumentation.Histogram;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters for a JsonFieldExtractorInterceptor or JsonProjectionInterceptor,
+ * registered with JMX when the interceptor is initialized. Each event is
+ * counted under exactly one outcome, parse times are in microseconds and body
+ * sizes in bytes.
+ */
+public class JsonFieldExtractorCounter extends MonitoredCounterGroup implements JsonFieldExtractorCounterMBean {
+
+    private static final String COUNTER_EXTRACTED = "interceptor.extracted";
+    private static final String COUNTER_MISSING_FIELD = "interceptor.missing.field";
+    private static final String COUNTER_NON_STRING_VALUE = "interceptor.non.string.value";
+    private static final String COUNTER_INVALID_JSON = "interceptor.invalid.json";
+    private static final String COUNTER_IO_ERROR = "interceptor.io.error";
+
+    private static final String[] ATTRIBUTES = {
+        COUNTER_EXTRACTED, COUNTER_MISSING_FIELD, COUNTER_NON_STRING_VALUE,
+        COUNTER_INVALID_JSON, COUNTER_IO_ERROR
+    };
+
+    /** The counter group names of the running interceptors, which JMX needs to be distinct. */
+    private static final Set<String> RUNNING_NAMES = ConcurrentHashMap.newKeySet();
+
+    private final Histogram parseTime = new Histogram();
+    private final Histogram bodySize = new Histogram();
+
+    public JsonFieldExtractorCounter(String name) {
+        super(Type.INTERCEPTOR, name, ATTRIBUTES);
+    }
+
+    /**
+     * Claims a counter group name for a running interceptor. Returns the given
+     * name, or without one the first free name out of defaultName,
+     * defaultName-2 and so on. Throws IllegalStateException if the given name
+     * is already in use.
+     */
+    static String claimName(String name, String defaultName) {
+        if (name != null) {
+            if (!RUNNING_NAMES.add(name)) {
+                throw new IllegalStateException("Interceptor counter name " + name + " is already in use");
+            }
+            return name;
+        }
+
+        String claimed = defaultName;
+        for (int i = 2; !RUNNING_NAMES.add(claimed); i++) {
+            claimed = defaultName + "-" + i;
+        }
+        return claimed;
+    }
+
+    static void releaseName(String name) {
+        RUNNING_NAMES.remove(name);
+    }
+
+    public void recordEvent(int size, long parseNanos) {
+        bodySize.record(size);
+        parseTime.record(parseNanos);
+    }
+
+    public long incrementExtractedCount() {
+        return increment(COUNTER_EXTRACTED);
+    }
+
+    public long incrementMissingFieldCount() {
+        return increment(COUNTER_MISSING_FIELD);
+    }
+
+    public long incrementNonStringValueCount() {
+        return increment(COUNTER_NON_STRING_VALUE);
+    }
+
+    public long incrementInvalidJsonCount() {
+        return increment(COUNTER_INVALID_JSON);
+    }
+
+    public long incrementIoErrorCount() {
+        return increment(COUNTER_IO_ERROR);
+    }
+
+    @Override
+    public long getExtractedCount() {
+        return get(COUNTER_EXTRACTED);
+    }
+
+    @Override
+    public long getMissingFieldCount() {
+        return get(COUNTER_MISSING_FIELD);
+    }
+
+    @Override
+    public long getNonStringValueCount() {
+        return get(COUNTER_NON_STRING_VALUE);
+    }
+
+    @Override
+    public long getInvalidJsonCount() {
+        return get(COUNTER_INVALID_JSON);
+    }
+
+    @Override
+    public long getIoErrorCount() {
+        return get(COUNTER_IO_ERROR);
+    }
+
+    @Override
+    public long getParseTimeMedian() {
+        return TimeUnit.NANOSECONDS.toMicros(parseTime.percentile(50));
+    }
+
+    @Override
+    public long getParseTime99thPercentile() {
+        return TimeUnit.NANOSECONDS.toMicros(parseTime.percentile(99));
+    }
+
+    @Override
+    public long getBodySizeMedian() {
+        return bodySize.percentile(50);
+    }
+
+    @Override
+    public long getBodySize99thPercentile() {
+        return bodySize.percentile(99);
+    }
+}
@@ -0,0 +1,31 @@
+package uk.gov.hmrc.flume.interceptor;
+
+/**
+ * JMX view of the metrics for a JsonFieldExtractorInterceptor.
+ */
+public interface JsonFieldExtractorCounterMBean {
+
+    long getExtractedCount();
+
+    long getMissingFieldCount();
+
+    long getNonStringValueCount();
+
+    long getInvalidJsonCount();
+
+    long getIoErrorCount();
+
+    long getParseTimeMedian();
+
+    long getParseTime99thPercentile();
+
+    long getBodySizeMedian();
+
+    long getBodySize99thPercentile();
+
+    long getStartTime();
+
+    long getStopTime();
+
+    String getType();
+}
@@ -2,8 +2,16 @@ package uk.gov.hmrc.flume.interceptor;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.flume.Context;
 import org.apache.flume.Event;
@@ -14,35 +22,238 @@ import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
+import uk.gov.hmrc.flume.instrumentation.RateLimitedLog;
 
 /**
- * Extracts a single field from a JSON event body. The original event body is
- * discarded, and replaced with the extracted value.
+ * Extracts top level string fields from a JSON event body.
  *
- * Events with invalid JSON formatting, or where the extracted value is not a
- * simple string value field, are discarded.
+ * With propertyName set, the original event body is discarded, and replaced
+ * with the value of that field. Events where the field is missing, or is not
+ * a simple string value field, are discarded.
+ *
+ * With headers.&lt;header&gt; = &lt;field&gt; mappings set, the value of each
+ * field is copied into the named event header and the body is kept, so that
+ * channel selectors and later stages can use the values without parsing the
+ * JSON again. Fields that are missing, or are not string values, leave their
+ * header unset. Both forms can be used together, and at least one must be
+ * configured.
+ *
+ * Events with invalid JSON formatting are discarded.
+ *
+ * Event bodies are expected to be UTF-8. Most are handled by scanning the raw
+ * bytes for the fields, and copying the values out directly when they contain
+ * no escapes. Escaped values, and anything else the scan cannot handle, are
+ * passed to the full JSON parser. Either way reading stops at the last of the
+ * wanted fields, rather than at the end of the object.
+ *
+ * Header values are resolved through a small cache, so that low cardinality
+ * fields such as a log level or service name share one String instance
+ * rather than allocating a new copy per event.
+ *
+ * Batches of events are intercepted in place, with discarded events removed
+ * from the list rather than left as nulls. When parallelThreshold is set,
+ * batches larger than it are split into parts of at most that many events,
+ * which are intercepted across a fork join pool of parallelism threads with
+ * the order kept. By default batches are intercepted on the calling thread.
+ *
+ * Each event is counted by its outcome, and its parse time and body size
+ * recorded, in a counter group registered with JMX under the configured
+ * name. Without propertyName, events lacking a mapped field are still kept,
+ * but counted as missing a field, or as holding a non-string value, rather
+ * than as extracted. Two running interceptors cannot share a configured
+ * name, and without one each running interceptor takes the first free name
+ * out of json-field-extractor, json-field-extractor-2 and so on. Warnings for
+ * discarded events are limited to one of each kind per logInterval, with a
+ * count of those suppressed, and only include stack traces when debug logging
+ * is enabled.
+ *
+ * Configurable options are :
+ * propertyName - the field to replace the body with (optional)
+ * headers.&lt;header&gt; - the field to copy into the header (optional)
+ * headerValueCacheSize - the number of header values to cache, 0 to disable (default 1024)
+ * parallelThreshold - the batch size above which batches are split, 0 to disable (default 0)
+ * parallelism - the number of threads to intercept split batches (default number of processors)
+ * name - the name of the JMX counter group, distinct for each interceptor (default json-field-extractor[-n])
+ * logInterval - the minimum time between warnings of the same kind (default 10000ms)
  */
 public class JsonFieldExtractorInterceptor implements Interceptor {
 
     private static final Logger LOG = Logger.getLogger(JsonFieldExtractorInterceptor.class);
 
-    private String propertyName;
+    private static final int DEFAULT_HEADER_VALUE_CACHE_SIZE = 1024;
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 0;
+    private static final String DEFAULT_NAME = "json-field-extractor";
+    private static final long DEFAULT_LOG_INTERVAL = 10000;
+
+    private final String[] fieldNames;
+    private final byte[][] fieldNameBytes;
+    private final int bodyField;
+    private final String[] headerNames;
+    private final int[] headerFields;
+    private final ValueCache valueCache;
+    private final int parallelThreshold;
+    private final int parallelism;
+    private final String name;
+    private JsonFieldExtractorCounter counter;
+    private String runningName;
+    private final RateLimitedLog nonStringLog;
+    private final RateLimitedLog invalidJsonLog;
+    private final RateLimitedLog ioErrorLog;
     private JsonFactory jsonFactory = new JsonFactory();
+    private ForkJoinPool pool;
+
+    private JsonFieldExtractorInterceptor(String propertyName, Map<String, String> headers,
+                                          int headerValueCacheSize, int parallelThreshold,
+                                          int parallelism, String name, long logInterval) {
+
+        // Each distinct field is looked for once, however many times it is used
+        List<String> fields = new ArrayList<>();
+        if (propertyName != null) {
+            fields.add(propertyName);
+        }
+        this.bodyField = propertyName != null ? 0 : -1;
 
-    private JsonFieldExtractorInterceptor(String propertyName) {
-        this.propertyName = propertyName;
+        this.headerNames = new String[headers.size()];
+        this.headerFields = new int[headers.size()];
+        int h = 0;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            int field = fields.indexOf(header.getValue());
+            if (field < 0) {
+                field = fields.size();
+                fields.add(header.getValue());
+            }
+            headerNames[h] = header.getKey();
+            headerFields[h] = field;
+            h++;
+        }
+
+        this.fieldNames = fields.toArray(new String[fields.size()]);
+        this.fieldNameBytes = new byte[fieldNames.length][];
+        for (int i = 0; i < fieldNames.length; i++) {
+            fieldNameBytes[i] = fieldNames[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        this.valueCache = headerValueCacheSize > 0 ? new ValueCache(headerValueCacheSize) : null;
+        this.parallelThreshold = parallelThreshold;
+        this.parallelism = parallelism;
+        this.name = name;
+        this.counter = new JsonFieldExtractorCounter(name != null ? name : DEFAULT_NAME);
+        this.nonStringLog = new RateLimitedLog(LOG, logInterval);
+        this.invalidJsonLog = new RateLimitedLog(LOG, logInterval);
+        this.ioErrorLog = new RateLimitedLog(LOG, logInterval);
     }
 
     @Override
     public void initialize() {
+        runningName = JsonFieldExtractorCounter.claimName(name, DEFAULT_NAME);
+        if (name == null && !runningName.equals(DEFAULT_NAME)) {
+            counter = new JsonFieldExtractorCounter(runningName);
+        }
+        counter.start();
+        if (parallelThreshold > 0) {
+            pool = new ForkJoinPool(parallelism);
+        }
     }
 
     @Override
     public Event intercept(Event event) {
+        return intercept(event, new long[fieldNames.length]);
+    }
+
+    /**
+     * Intercepts a single event, using the given array, which is reused
+     * across the events of a batch, to hold the field locations.
+     */
+    private Event intercept(Event event, long[] locations) {
+        long start = System.nanoTime();
+        int size = event.getBody().length;
+
+        Event intercepted = extract(event, locations);
+
+        counter.recordEvent(size, System.nanoTime() - start);
+        return intercepted;
+    }
+
+    private Event extract(Event event, long[] locations) {
+        byte[] body = event.getBody();
+        String[] values = null;
+
+        // Values found by the parser are only available as text
+        if (!JsonFieldScanner.scan(body, fieldNameBytes, locations)) {
+            values = new String[fieldNames.length];
+            if (!parse(body, locations, values)) {
+                return null;
+            }
+        }
+
+        if (bodyField >= 0) {
+            long location = locations[bodyField];
+            if (location == JsonFieldScanner.MISSING) {
+                counter.incrementMissingFieldCount();
+                return null;
+            } else if (location == JsonFieldScanner.NOT_STRING) {
+                counter.incrementNonStringValueCount();
+                nonStringLog.warn("Discarding event with non-string property value");
+                return null;
+            }
+        }
+
+        boolean headerMissing = false;
+        boolean headerNotString = false;
+        for (int h = 0; h < headerNames.length; h++) {
+            int field = headerFields[h];
+            if (locations[field] >= 0) {
+                String value = values != null ? values[field] : headerValue(body, locations[field]);
+                event.getHeaders().put(headerNames[h], value);
+            } else if (locations[field] == JsonFieldScanner.MISSING) {
+                headerMissing = true;
+            } else {
+                headerNotString = true;
+            }
+        }
+
+        if (bodyField >= 0) {
+            if (values != null) {
+                event.setBody(values[bodyField].getBytes(StandardCharsets.UTF_8));
+            } else {
+                int offset = JsonFieldScanner.offset(locations[bodyField]);
+                event.setBody(Arrays.copyOfRange(body, offset, offset + JsonFieldScanner.length(locations[bodyField])));
+            }
+        }
+
+        // Events are kept without a body field, but counted by what was lacking
+        if (bodyField < 0 && headerMissing) {
+            counter.incrementMissingFieldCount();
+        } else if (bodyField < 0 && headerNotString) {
+            counter.incrementNonStringValueCount();
+        } else {
+            counter.incrementExtractedCount();
+        }
+        return event;
+    }
+
+    private String headerValue(byte[] body, long location) {
+        int offset = JsonFieldScanner.offset(location);
+        int length = JsonFieldScanner.length(location);
+        if (valueCache != null) {
+            return valueCache.get(body, offset, length);
+        }
+        return new String(body, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the fields using the full JSON parser, for the bodies that the
+     * byte scan cannot handle. Sets the locations as the scan does, but with
+     * zero marking a found string value, whose text is set in values.
+     * Returns false if the body could not be read.
+     */
+    private boolean parse(byte[] body, long[] locations, String[] values) {
+        Arrays.fill(locations, JsonFieldScanner.MISSING);
+        int remaining = fieldNames.length;
 
         JsonParser parser = null;
         try {
-            parser = jsonFactory.createJsonParser(event.getBody());
+            parser = jsonFactory.createJsonParser(body);
 
             // Read past the top level START_OBJECT token
             parser.nextToken();
@@ -51,23 +262,25 @@ public class JsonFieldExtractorInterceptor implements Interceptor {
             }
 
             JsonToken currentToken = parser.getCurrentToken();
-            while (currentToken != JsonToken.END_OBJECT) {
+            while (remaining > 0 && currentToken != null && currentToken != JsonToken.END_OBJECT) {
 
                 // Match a top level property name
                 if (currentToken == JsonToken.FIELD_NAME) {
-                    String fieldName = parser.getCurrentName();
-                    if (propertyName.equals(fieldName)) {
-                        JsonToken value = parser.nextToken();
+                    int field = indexOf(parser.getCurrentName(), locations);
+                    JsonToken value = parser.nextToken();
+
+                    if (field >= 0) {
+                        remaining--;
 
                         // Extract the next value as a string
                         if (value == JsonToken.VALUE_STRING) {
-                            event.setBody(parser.getText().getBytes());
-                            return event;
+                            locations[field] = 0;
+                            values[field] = parser.getText();
                         } else {
-                            LOG.warn("Discarding event with non-string property value");
-                            return null;
+                            locations[field] = JsonFieldScanner.NOT_STRING;
                         }
                     }
+                    parser.skipChildren();
 
                 // Skip over all array and object values
                 } else if (currentToken == JsonToken.START_ARRAY
@@ -77,30 +290,159 @@ public class JsonFieldExtractorInterceptor implements Interceptor {
 
                 currentToken = parser.nextToken();
             }
+            return true;
 
         } catch (JsonParseException|UnsupportedEncodingException e) {
-            LOG.warn("Discarding event with invalid JSON formatting", e);
+            counter.incrementInvalidJsonCount();
+            invalidJsonLog.warn("Discarding event with invalid JSON formatting", e);
         } catch (IOException e) {
-            LOG.warn("Problem reading the event contents", e);
+            counter.incrementIoErrorCount();
+            ioErrorLog.warn("Problem reading the event contents", e);
         } finally {
-            try {
-                parser.close();
-            } catch (IOException e) {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                }
             }
         }
 
-        return null;
+        return false;
+    }
+
+    /**
+     * Returns the index of the wanted field with the given name, if it has not
+     * already been seen, or -1.
+     */
+    private int indexOf(String name, long[] locations) {
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (locations[i] == JsonFieldScanner.MISSING && fieldNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
     public List<Event> intercept(List<Event> events) {
-        return events.stream()
-                .map(this::intercept)
-                .collect(Collectors.toList());
+        Event[] intercepted = new Event[events.size()];
+        ForkJoinPool pool = this.pool;
+        if (pool != null && events.size() > parallelThreshold && events instanceof RandomAccess) {
+            pool.invoke(new InterceptTask(events, intercepted, 0, events.size()));
+        } else {
+            // Lists without indexed access, such as the LinkedList from Flume's
+            // line deserializer, are walked once with an iterator
+            long[] locations = new long[fieldNames.length];
+            int i = 0;
+            for (Event event : events) {
+                intercepted[i++] = intercept(event, locations);
+            }
+        }
+        return removeDiscarded(events, intercepted);
+    }
+
+    /**
+     * Compacts the kept events to the front of the list, keeping their order,
+     * and removes the rest in one go. Lists that cannot be changed, or cannot
+     * shrink, such as those from Arrays.asList or Collections.singletonList,
+     * are replaced by a new list of the kept events.
+     */
+    private static List<Event> removeDiscarded(List<Event> events, Event[] intercepted) {
+        int kept = 0;
+        for (Event event : intercepted) {
+            if (event != null) {
+                intercepted[kept++] = event;
+            }
+        }
+
+        // Events are intercepted in place, so only moved events need setting
+        try {
+            if (events instanceof RandomAccess) {
+                for (int i = 0; i < kept; i++) {
+                    if (events.get(i) != intercepted[i]) {
+                        events.set(i, intercepted[i]);
+                    }
+                }
+                events.subList(kept, events.size()).clear();
+            } else {
+                ListIterator<Event> iterator = events.listIterator();
+                for (int i = 0; i < kept; i++) {
+                    if (iterator.next() != intercepted[i]) {
+                        iterator.set(intercepted[i]);
+                    }
+                }
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+            return events;
+        } catch (UnsupportedOperationException e) {
+            return new ArrayList<>(Arrays.asList(intercepted).subList(0, kept));
+        }
     }
 
     @Override
     public void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        counter.stop();
+        if (runningName != null) {
+            JsonFieldExtractorCounter.releaseName(runningName);
+            runningName = null;
+        }
+    }
+
+    /**
+     * Used by tests to check the outcome counts.
+     */
+    JsonFieldExtractorCounter getCounter() {
+        return counter;
+    }
+
+    /**
+     * Used by tests to check the name the counter group is registered under.
+     */
+    String getRunningName() {
+        return runningName;
+    }
+
+    /**
+     * Intercepts a range of a batch, halving it until each part is no larger
+     * than the parallel threshold. Each part writes its results to its own
+     * positions in the intercepted array, so the order is kept.
+     */
+    private class InterceptTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Event> events;
+        private final Event[] intercepted;
+        private final int from;
+        private final int to;
+
+        private InterceptTask(List<Event> events, Event[] intercepted, int from, int to) {
+            this.events = events;
+            this.intercepted = intercepted;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= parallelThreshold) {
+                long[] locations = new long[fieldNames.length];
+                for (int i = from; i < to; i++) {
+                    intercepted[i] = intercept(events.get(i), locations);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new InterceptTask(events, intercepted, from, middle),
+                        new InterceptTask(events, intercepted, middle, to));
+            }
+        }
     }
 
     /**
@@ -109,15 +451,38 @@ public class JsonFieldExtractorInterceptor implements Interceptor {
     public static class Builder implements Interceptor.Builder {
 
         private String propertyName;
+        private Map<String, String> headers;
+        private int headerValueCacheSize;
+        private int parallelThreshold;
+        private int parallelism;
+        private String name;
+        private long logInterval;
 
         @Override
         public Interceptor build() {
-            return new JsonFieldExtractorInterceptor(propertyName);
+            return new JsonFieldExtractorInterceptor(
+                    propertyName, headers, headerValueCacheSize, parallelThreshold, parallelism,
+                    name, logInterval);
         }
 
         @Override
         public void configure(Context context) {
             propertyName = context.getString("propertyName");
+            headers = new TreeMap<>(context.getSubProperties("headers."));
+            if (propertyName == null && headers.isEmpty()) {
+                throw new IllegalArgumentException("Either propertyName or at least one headers mapping must be configured");
+            }
+            headerValueCacheSize = context.getInteger("headerValueCacheSize", DEFAULT_HEADER_VALUE_CACHE_SIZE);
+            parallelThreshold = context.getInteger("parallelThreshold", DEFAULT_PARALLEL_THRESHOLD);
+            if (parallelThreshold < 0) {
+                throw new IllegalArgumentException("Parallel threshold must be zero or positive");
+            }
+            parallelism = context.getInteger("parallelism", Runtime.getRuntime().availableProcessors());
+            if (parallelThreshold > 0 && parallelism <= 0) {
+                throw new IllegalArgumentException("Parallelism must be a non-zero and positive");
+            }
+            name = context.getString("name");
+            logInterval = context.getLong("logInterval", DEFAULT_LOG_INTERVAL);
         }
     }
 }
@@ -0,0 +1,462 @@
+package uk.gov.hmrc.flume.interceptor;
+
+import java.util.Arrays;
+
+/**
+ * Finds top level string fields in a UTF-8 JSON object by scanning the raw
+ * bytes, without creating a parser or decoding any text.
+ *
+ * Field names are compared byte for byte with the pre-encoded name, and other
+ * values are skipped. When the field holds a
+ * string without escapes, its location in the input is returned so that the
+ * value can be copied out directly, as UTF-8 JSON strings without escapes are
+ * already the UTF-8 bytes of their value.
+ *
+ * Anything the scanner does not handle simply (escaped names or values, other
+ * encodings, or unexpected structure) makes the scan fail, and the caller should
+ * then use a full JSON parser, which also produces the error for invalid input.
+ * Everything up to the last wanted field, skipped values included, is checked
+ * against the JSON grammar and for valid UTF-8, so the scan never accepts
+ * input the parser would reject there. As with the parser, nothing after the
+ * last wanted field is read. Values nested deeper than MAX_SKIP_DEPTH are left
+ * to the parser.
+ */
+final class JsonFieldScanner {
+
+    /** The object has no field with the wanted name. */
+    static final long MISSING = -1;
+
+    /** The wanted field holds a value that is not a string. */
+    static final long NOT_STRING = -2;
+
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+    private static final int MAX_SKIP_DEPTH = 64;
+
+    private JsonFieldScanner() {
+    }
+
+    /**
+     * Finds several top level fields in one pass, stopping as soon as the last
+     * of them has been seen. Sets each entry of locations to the location of
+     * the corresponding named string value, packed as (offset &lt;&lt; 32 |
+     * length), or to MISSING or NOT_STRING. Null names are never matched.
+     * Returns false if the input needs a full parser to decide, in which case
+     * the locations are not meaningful.
+     */
+    static boolean scan(byte[] json, byte[][] names, long[] locations) {
+        Arrays.fill(locations, MISSING);
+        int remaining = 0;
+        for (byte[] name : names) {
+            if (name != null) {
+                remaining++;
+            }
+        }
+
+        int end = json.length;
+
+        int i = skipWhitespace(json, 0);
+        if (i >= end || json[i] != '{') {
+            return false;
+        }
+
+        i = skipWhitespace(json, i + 1);
+        if (i < end && json[i] == '}') {
+            return true;
+        }
+
+        while (i < end) {
+            if (json[i] != '"') {
+                return false;
+            }
+
+            int nameStart = i + 1;
+            int nameEnd = endOfSimpleString(json, nameStart);
+            if (nameEnd < 0) {
+                return false;
+            }
+
+            i = skipWhitespace(json, nameEnd + 1);
+            if (i >= end || json[i] != ':') {
+                return false;
+            }
+            i = skipWhitespace(json, i + 1);
+            if (i >= end) {
+                return false;
+            }
+
+            int match = indexOf(names, locations, json, nameStart, nameEnd);
+            if (match >= 0 && json[i] == '"') {
+                int valueStart = i + 1;
+                int valueEnd = endOfSimpleString(json, valueStart);
+                if (valueEnd < 0) {
+                    return false;
+                }
+                locations[match] = ((long) valueStart << 32) | (valueEnd - valueStart);
+                i = valueEnd + 1;
+            } else {
+                i = skipValue(json, i, 0);
+                if (i < 0) {
+                    return false;
+                }
+                if (match >= 0) {
+                    locations[match] = NOT_STRING;
+                }
+            }
+
+            if (match >= 0 && --remaining == 0) {
+                return true;
+            }
+
+            i = skipWhitespace(json, i);
+            if (i >= end) {
+                return false;
+            }
+            if (json[i] == '}') {
+                return true;
+            }
+            if (json[i] != ',') {
+                return false;
+            }
+            i = skipWhitespace(json, i + 1);
+        }
+        return false;
+    }
+
+    static int offset(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int length(long location) {
+        return (int) location;
+    }
+
+    /**
+     * Returns the index of the closing quote of a string starting at the given
+     * index, or -1 if the string contains escapes, control characters or
+     * invalid UTF-8, or is not terminated.
+     */
+    private static int endOfSimpleString(byte[] json, int start) {
+        int i = start;
+        while (i < json.length) {
+            byte b = json[i];
+            if (b == '"') {
+                return i;
+            }
+            if (b == '\\' || (b >= 0 && b < 0x20)) {
+                return -1;
+            }
+            i = b >= 0 ? i + 1 : skipUtf8(json, i);
+            if (i < 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index after the value starting at the given index, nested
+     * within depth containers, or -1 if the value is malformed, not
+     * terminated, or nested too deeply.
+     */
+    private static int skipValue(byte[] json, int start, int depth) {
+        byte b = json[start];
+        if (b == '"') {
+            return skipString(json, start + 1);
+        }
+        if (b == '{') {
+            return skipObject(json, start, depth + 1);
+        }
+        if (b == '[') {
+            return skipArray(json, start, depth + 1);
+        }
+        if (b == 't') {
+            return skipLiteral(json, start, TRUE);
+        }
+        if (b == 'f') {
+            return skipLiteral(json, start, FALSE);
+        }
+        if (b == 'n') {
+            return skipLiteral(json, start, NULL);
+        }
+        if (b == '-' || isDigit(b)) {
+            return skipNumber(json, start);
+        }
+        return -1;
+    }
+
+    private static int skipObject(byte[] json, int start, int depth) {
+        if (depth > MAX_SKIP_DEPTH) {
+            return -1;
+        }
+
+        int i = skipWhitespace(json, start + 1);
+        if (i < json.length && json[i] == '}') {
+            return i + 1;
+        }
+
+        while (i < json.length) {
+            if (json[i] != '"') {
+                return -1;
+            }
+            i = skipString(json, i + 1);
+            if (i < 0) {
+                return -1;
+            }
+
+            i = skipWhitespace(json, i);
+            if (i >= json.length || json[i] != ':') {
+                return -1;
+            }
+            i = skipWhitespace(json, i + 1);
+            if (i >= json.length) {
+                return -1;
+            }
+
+            i = skipValue(json, i, depth);
+            if (i < 0) {
+                return -1;
+            }
+
+            i = skipWhitespace(json, i);
+            if (i >= json.length) {
+                return -1;
+            }
+            if (json[i] == '}') {
+                return i + 1;
+            }
+            if (json[i] != ',') {
+                return -1;
+            }
+            i = skipWhitespace(json, i + 1);
+        }
+        return -1;
+    }
+
+    private static int skipArray(byte[] json, int start, int depth) {
+        if (depth > MAX_SKIP_DEPTH) {
+            return -1;
+        }
+
+        int i = skipWhitespace(json, start + 1);
+        if (i < json.length && json[i] == ']') {
+            return i + 1;
+        }
+
+        while (i < json.length) {
+            i = skipValue(json, i, depth);
+            if (i < 0) {
+                return -1;
+            }
+
+            i = skipWhitespace(json, i);
+            if (i >= json.length) {
+                return -1;
+            }
+            if (json[i] == ']') {
+                return i + 1;
+            }
+            if (json[i] != ',') {
+                return -1;
+            }
+            i = skipWhitespace(json, i + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index after the closing quote of a string starting at the
+     * given index, or -1 if the string holds an invalid escape, a control
+     * character or invalid UTF-8, or is not terminated.
+     */
+    private static int skipString(byte[] json, int start) {
+        int i = start;
+        while (i < json.length) {
+            byte b = json[i];
+            if (b == '"') {
+                return i + 1;
+            }
+            if (b == '\\') {
+                i = skipEscape(json, i + 1);
+            } else if (b >= 0) {
+                if (b < 0x20) {
+                    return -1;
+                }
+                i++;
+            } else {
+                i = skipUtf8(json, i);
+            }
+            if (i < 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index after the escape whose character follows the
+     * backslash at the given index, or -1 if it is not a JSON escape.
+     */
+    private static int skipEscape(byte[] json, int start) {
+        if (start >= json.length) {
+            return -1;
+        }
+        switch (json[start]) {
+            case '"':
+            case '\\':
+            case '/':
+            case 'b':
+            case 'f':
+            case 'n':
+            case 'r':
+            case 't':
+                return start + 1;
+            case 'u':
+                int end = start + 5;
+                if (end > json.length) {
+                    return -1;
+                }
+                for (int i = start + 1; i < end; i++) {
+                    if (!isHexDigit(json[i])) {
+                        return -1;
+                    }
+                }
+                return end;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the index after the multi-byte UTF-8 sequence starting at the
+     * given index, or -1 if it has an invalid lead byte or is cut short.
+     */
+    private static int skipUtf8(byte[] json, int start) {
+        int lead = json[start] & 0xFF;
+        int continuations;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            continuations = 1;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            continuations = 2;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            continuations = 3;
+        } else {
+            return -1;
+        }
+
+        int end = start + 1 + continuations;
+        if (end > json.length) {
+            return -1;
+        }
+        for (int i = start + 1; i < end; i++) {
+            if ((json[i] & 0xC0) != 0x80) {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    private static int skipLiteral(byte[] json, int start, byte[] literal) {
+        int end = start + literal.length;
+        if (end > json.length || !regionEquals(json, start, end, literal)) {
+            return -1;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the index after the number starting at the given index, or -1
+     * if it does not follow the JSON number grammar. A leading zero ends the
+     * integer part, so any digit after it fails as a missing separator.
+     */
+    private static int skipNumber(byte[] json, int start) {
+        int i = start;
+        if (json[i] == '-') {
+            i++;
+        }
+        if (i >= json.length || !isDigit(json[i])) {
+            return -1;
+        }
+        if (json[i] == '0') {
+            i++;
+        } else {
+            i = skipDigits(json, i);
+        }
+
+        if (i < json.length && json[i] == '.') {
+            int digits = i + 1;
+            i = skipDigits(json, digits);
+            if (i == digits) {
+                return -1;
+            }
+        }
+
+        if (i < json.length && (json[i] == 'e' || json[i] == 'E')) {
+            i++;
+            if (i < json.length && (json[i] == '+' || json[i] == '-')) {
+                i++;
+            }
+            int digits = i;
+            i = skipDigits(json, digits);
+            if (i == digits) {
+                return -1;
+            }
+        }
+        return i;
+    }
+
+    private static int skipDigits(byte[] json, int start) {
+        int i = start;
+        while (i < json.length && isDigit(json[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isHexDigit(byte b) {
+        return isDigit(b) || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+    }
+
+    private static int skipWhitespace(byte[] json, int start) {
+        int i = start;
+        while (i < json.length) {
+            byte b = json[i];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index of the wanted name matching the field name between
+     * start and end, skipping names already seen, or -1 if none match.
+     */
+    private static int indexOf(byte[][] names, long[] locations, byte[] json, int start, int end) {
+        for (int n = 0; n < names.length; n++) {
+            if (names[n] != null && locations[n] == MISSING && regionEquals(json, start, end, names[n])) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(byte[] json, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (json[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package uk.gov.hmrc.flume.interceptor;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of dotted JSON field paths, such as request.headers.host, compiled
+ * into a tree keyed by field name so that a streaming parser can tell at each
+ * field whether it is wanted, leads to a wanted field, or can be skipped.
+ */
+class JsonPathTrie {
+
+    private final Node root = new Node();
+    private final int size;
+
+    JsonPathTrie(List<String> paths) {
+        for (String path : paths) {
+            if (path.isEmpty() || path.startsWith(".") || path.endsWith(".") || path.contains("..")) {
+                throw new IllegalArgumentException("Invalid JSON path : " + path);
+            }
+
+            Node node = root;
+            for (String fieldName : path.split("\\.")) {
+                if (node.path != null) {
+                    throw new IllegalArgumentException(
+                            "JSON path " + node.path + " cannot also be a prefix of " + path);
+                }
+                node = node.children.computeIfAbsent(fieldName, name -> new Node());
+            }
+
+            if (node.path != null) {
+                throw new IllegalArgumentException("Duplicate JSON path : " + path);
+            }
+            if (!node.children.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "JSON path " + path + " cannot also be a prefix of another path");
+            }
+            node.path = path;
+            node.index = paths.indexOf(path);
+        }
+        this.size = paths.size();
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * The number of paths, which is the number of values to find before the
+     * rest of a document can be ignored.
+     */
+    int size() {
+        return size;
+    }
+
+    static class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+        private String path;
+        private int index = -1;
+
+        private Node() {
+        }
+
+        Node child(String fieldName) {
+            return children.get(fieldName);
+        }
+
+        /**
+         * The full path if this node is the end of a path, otherwise null.
+         */
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * The position of the path in the configured list if this node is
+         * the end of a path, otherwise -1.
+         */
+        int getIndex() {
+            return index;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package uk.gov.hmrc.flume.interceptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import uk.gov.hmrc.flume.instrumentation.RateLimitedLog;
+
+/**
+ * Extracts a set of fields, given as dotted paths such as request.headers.host,
+ * from a JSON event body in a single streaming pass.
+ *
+ * The parser only descends into objects that lead to a wanted path, skips all
+ * other values, and stops reading as soon as every path has been found.
+ *
+ * With output = body, the original event body is replaced with a compact JSON
+ * object holding each value found, keyed by its path. With output = headers,
+ * the body is kept and each value found is set as an event header named by
+ * its path, with headerPrefix prepended. String values are used as they are,
+ * and object and array values as their JSON text. Null values are not set as
+ * headers.
+ *
+ * Paths that are not found are left out of the output. If a field appears
+ * more than once, only its first value is used. Events with invalid
+ * JSON formatting, or where the body is not a JSON object, are discarded.
+ *
+ * Events are counted by their outcome in a JsonFieldExtractorCounter group,
+ * named as for the JsonFieldExtractorInterceptor but defaulting to
+ * json-projection[-n], with projected events counted as extracted. Warnings
+ * for discarded events are rate limited in the same way.
+ *
+ * Configurable options are :
+ * paths - the dotted field paths to extract, separated by spaces or commas (required)
+ * output - body or headers (default body)
+ * headerPrefix - prepended to the path to give the header name (default empty)
+ * name - the name of the JMX counter group, distinct for each interceptor (default json-projection[-n])
+ * logInterval - the minimum time between warnings of the same kind (default 10000ms)
+ */
+public class JsonProjectionInterceptor implements Interceptor {
+
+    private static final Logger LOG = Logger.getLogger(JsonProjectionInterceptor.class);
+
+    private static final String DEFAULT_NAME = "json-projection";
+    private static final long DEFAULT_LOG_INTERVAL = 10000;
+
+    private final JsonPathTrie paths;
+    private final boolean toHeaders;
+    private final String headerPrefix;
+    private final String name;
+    private JsonFieldExtractorCounter counter;
+    private String runningName;
+    private final RateLimitedLog invalidJsonLog;
+    private final RateLimitedLog ioErrorLog;
+    private JsonFactory jsonFactory = new JsonFactory();
+
+    private JsonProjectionInterceptor(JsonPathTrie paths, boolean toHeaders, String headerPrefix,
+                                      String name, long logInterval) {
+        this.paths = paths;
+        this.toHeaders = toHeaders;
+        this.headerPrefix = headerPrefix;
+        this.name = name;
+        this.counter = new JsonFieldExtractorCounter(name != null ? name : DEFAULT_NAME);
+        this.invalidJsonLog = new RateLimitedLog(LOG, logInterval);
+        this.ioErrorLog = new RateLimitedLog(LOG, logInterval);
+    }
+
+    @Override
+    public void initialize() {
+        runningName = JsonFieldExtractorCounter.claimName(name, DEFAULT_NAME);
+        if (name == null && !runningName.equals(DEFAULT_NAME)) {
+            counter = new JsonFieldExtractorCounter(runningName);
+        }
+        counter.start();
+    }
+
+    @Override
+    public Event intercept(Event event) {
+        long start = System.nanoTime();
+        int size = event.getBody().length;
+
+        Event intercepted = project(event);
+
+        counter.recordEvent(size, System.nanoTime() - start);
+        return intercepted;
+    }
+
+    private Event project(Event event) {
+        JsonParser parser = null;
+        JsonGenerator generator = null;
+        try {
+            parser = jsonFactory.createJsonParser(event.getBody());
+
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                counter.incrementInvalidJsonCount();
+                invalidJsonLog.warn("Discarding event without a JSON object body");
+                return null;
+            }
+
+            ByteArrayOutputStream projection = null;
+            if (!toHeaders) {
+                projection = new ByteArrayOutputStream();
+                generator = jsonFactory.createJsonGenerator(projection, JsonEncoding.UTF8);
+                generator.writeStartObject();
+            }
+
+            boolean[] found = new boolean[paths.size()];
+            project(parser, paths.getRoot(), event.getHeaders(), generator, found, paths.size());
+
+            if (!toHeaders) {
+                generator.writeEndObject();
+                generator.flush();
+                event.setBody(projection.toByteArray());
+            }
+            counter.incrementExtractedCount();
+            return event;
+
+        } catch (JsonParseException e) {
+            counter.incrementInvalidJsonCount();
+            invalidJsonLog.warn("Discarding event with invalid JSON formatting", e);
+        } catch (IOException e) {
+            counter.incrementIoErrorCount();
+            ioErrorLog.warn("Problem reading the event contents", e);
+        } finally {
+            if (generator != null) {
+                try {
+                    generator.close();
+                } catch (IOException e) {
+                }
+            }
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Walks the fields of the object the parser is at, writing out the values
+     * of wanted paths not already found and descending into objects that lead
+     * to wanted paths. Returns how many paths are still to be found.
+     */
+    private int project(JsonParser parser, JsonPathTrie.Node node, Map<String, String> headers,
+                        JsonGenerator generator, boolean[] found, int remaining) throws IOException {
+
+        JsonToken currentToken = parser.nextToken();
+        while (currentToken == JsonToken.FIELD_NAME) {
+            JsonPathTrie.Node child = node.child(parser.getCurrentName());
+            JsonToken value = parser.nextToken();
+
+            if (child == null) {
+                parser.skipChildren();
+
+            } else if (child.getPath() != null && found[child.getIndex()]) {
+                parser.skipChildren();
+
+            } else if (child.getPath() != null) {
+                if (generator != null) {
+                    generator.writeFieldName(child.getPath());
+                    generator.copyCurrentStructure(parser);
+                } else if (value != JsonToken.VALUE_NULL) {
+                    headers.put(headerPrefix + child.getPath(), text(parser, value));
+                } else {
+                    parser.skipChildren();
+                }
+                found[child.getIndex()] = true;
+                remaining--;
+
+            } else if (value == JsonToken.START_OBJECT) {
+                remaining = project(parser, child, headers, generator, found, remaining);
+
+            } else {
+                parser.skipChildren();
+            }
+
+            if (remaining == 0) {
+                return 0;
+            }
+            currentToken = parser.nextToken();
+        }
+
+        if (currentToken != JsonToken.END_OBJECT) {
+            throw new JsonParseException("Unexpected token " + currentToken, parser.getCurrentLocation());
+        }
+        return remaining;
+    }
+
+    private String text(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT && value != JsonToken.START_ARRAY) {
+            return parser.getText();
+        }
+
+        StringWriter json = new StringWriter();
+        JsonGenerator generator = jsonFactory.createJsonGenerator(json);
+        generator.copyCurrentStructure(parser);
+        generator.close();
+        return json.toString();
+    }
+
+    @Override
+    public List<Event> intercept(List<Event> events) {
+        return events.stream()
+                .map(this::intercept)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void close() {
+        counter.stop();
+        if (runningName != null) {
+            JsonFieldExtractorCounter.releaseName(runningName);
+            runningName = null;
+        }
+    }
+
+    /**
+     * Used by tests to check the outcome counts.
+     */
+    JsonFieldExtractorCounter getCounter() {
+        return counter;
+    }
+
+    /**
+     * Used by Flume to create the Interceptor instance.
+     */
+    public static class Builder implements Interceptor.Builder {
+
+        private JsonPathTrie paths;
+        private boolean toHeaders;
+        private String headerPrefix;
+        private String name;
+        private long logInterval;
+
+        @Override
+        public Interceptor build() {
+            return new JsonProjectionInterceptor(paths, toHeaders, headerPrefix, name, logInterval);
+        }
+
+        @Override
+        public void configure(Context context) {
+            String configuredPaths = context.getString("paths", "");
+
+            List<String> pathList = new ArrayList<>();
+            for (String path : configuredPaths.trim().split("[\\s,]+")) {
+                if (!path.isEmpty()) {
+                    pathList.add(path);
+                }
+            }
+            if (pathList.isEmpty()) {
+                throw new IllegalArgumentException("At least one JSON path must be configured");
+            }
+            paths = new JsonPathTrie(pathList);
+
+            String output = context.getString("output", "body");
+            if ("headers".equalsIgnoreCase(output)) {
+                toHeaders = true;
+            } else if ("body".equalsIgnoreCase(output)) {
+                toHeaders = false;
+            } else {
+                throw new IllegalArgumentException("Output must be one of body or headers");
+            }
+
+            headerPrefix = context.getString("headerPrefix", "");
+            name = context.getString("name");
+            logInterval = context.getLong("logInterval", DEFAULT_LOG_INTERVAL);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package uk.gov.hmrc.flume.interceptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Cache of the Strings decoded from short UTF-8 values, so that fields with
+ * few distinct values, such as a log level or service name, resolve to the
+ * same String instance on every event instead of a new copy each time.
+ *
+ * The cache is a fixed size table indexed by a hash of the value bytes, where
+ * a new value replaces whatever was in its slot. Entries are immutable and
+ * published with a single reference write, so lookups need no locking and
+ * the worst case of a race is a missed hit. Values longer than
+ * MAX_VALUE_LENGTH bytes are never cached, as they are unlikely to repeat.
+ */
+class ValueCache {
+
+    static final int MAX_VALUE_LENGTH = 64;
+
+    private final Entry[] entries;
+    private final int mask;
+
+    /**
+     * Creates a cache with at least the given number of slots, rounded up to
+     * a power of two.
+     */
+    ValueCache(int size) {
+        int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.entries = new Entry[slots];
+        this.mask = slots - 1;
+    }
+
+    String get(byte[] bytes, int offset, int length) {
+        if (length > MAX_VALUE_LENGTH) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+
+        int hash = hash(bytes, offset, length);
+        int slot = hash & mask;
+
+        Entry entry = entries[slot];
+        if (entry != null && entry.hash == hash && entry.matches(bytes, offset, length)) {
+            return entry.value;
+        }
+
+        String value = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        entries[slot] = new Entry(hash, Arrays.copyOfRange(bytes, offset, offset + length), value);
+        return value;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Entry {
+
+        private final int hash;
+        private final byte[] bytes;
+        private final String value;
+
+        private Entry(int hash, byte[] bytes, String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+
+        private boolean matches(byte[] other, int offset, int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != other[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
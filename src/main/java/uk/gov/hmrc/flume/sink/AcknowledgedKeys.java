@@ -0,0 +1,90 @@
+package uk.gov.hmrc.flume.sink;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded least recently used count of the keys of events that the endpoint
+ * has acknowledged in transactions that were then rolled back.
+ *
+ * When a transaction is rolled back after some of its requests succeeded,
+ * the acknowledged events go back to the channel. Each acknowledgement adds
+ * one to the count for the event's key, and each event taken again with that
+ * key uses up one count and is skipped rather than sent twice. The sink only
+ * counts keys taken from an event header holding a unique id, so a key seen
+ * again belongs to an event that was already sent.
+ *
+ * Every count is cleared when a transaction commits. By then the events that
+ * were rolled back have either been taken again and skipped, or been taken
+ * by another sink, and keeping their keys could skip new events with the same
+ * key. If the transaction that skipped events is rolled back, their counts
+ * are restored.
+ *
+ * Only used from the sink's runner thread.
+ */
+class AcknowledgedKeys {
+
+    private final LeastRecentlyUsed counts;
+    private final List<Long> skippedKeys = new ArrayList<>();
+
+    AcknowledgedKeys(int size) {
+        this.counts = new LeastRecentlyUsed(size);
+    }
+
+    void acknowledge(long key) {
+        counts.merge(key, 1, Integer::sum);
+    }
+
+    /**
+     * Uses up one acknowledgement of the key, returning whether there was
+     * one, in which case the event should be skipped.
+     */
+    boolean skip(long key) {
+        Integer count = counts.get(key);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            counts.remove(key);
+        } else {
+            counts.put(key, count - 1);
+        }
+        skippedKeys.add(key);
+        return true;
+    }
+
+    void commit() {
+        counts.clear();
+        skippedKeys.clear();
+    }
+
+    void rollback() {
+        for (Long key : skippedKeys) {
+            acknowledge(key);
+        }
+        skippedKeys.clear();
+    }
+
+    int size() {
+        return counts.size();
+    }
+
+    private static class LeastRecentlyUsed extends LinkedHashMap<Long, Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private LeastRecentlyUsed(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package uk.gov.hmrc.flume.sink;
+
+/**
+ * Time spent in each stage of one sampled HttpSink transaction. Stages that
+ * run more than once in a transaction, such as one request per lane, add up.
+ *
+ * Unsampled transactions share the UNSAMPLED trace, which does not read the
+ * clock, so tracing costs only a branch per stage when a transaction is not
+ * sampled. Only used from the sink's runner thread.
+ */
+class DeliveryTrace {
+
+    /**
+     * The stages of a transaction. IDLE is the time spent waiting for the
+     * first event of an empty channel, which is not counted in TAKE.
+     */
+    enum Stage {
+        TAKE, IDLE, ENCODE, CONNECT, WRITE, RESPONSE, COMMIT
+    }
+
+    static final DeliveryTrace UNSAMPLED = new DeliveryTrace(false);
+
+    private final boolean sampled;
+    private final long[] stageNanos;
+    private final long startNanos;
+
+    private DeliveryTrace(boolean sampled) {
+        this.sampled = sampled;
+        this.stageNanos = sampled ? new long[Stage.values().length] : null;
+        this.startNanos = sampled ? System.nanoTime() : 0;
+    }
+
+    static DeliveryTrace sampled() {
+        return new DeliveryTrace(true);
+    }
+
+    boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * Returns the start time of a stage, to be passed to record.
+     */
+    long start() {
+        return sampled ? System.nanoTime() : 0;
+    }
+
+    void record(Stage stage, long start) {
+        if (sampled) {
+            stageNanos[stage.ordinal()] += System.nanoTime() - start;
+        }
+    }
+
+    long getStageNanos(Stage stage) {
+        return sampled ? stageNanos[stage.ordinal()] : 0;
+    }
+
+    /**
+     * The time since the trace was started.
+     */
+    long getElapsedNanos() {
+        return sampled ? System.nanoTime() - startNanos : 0;
+    }
+}
@@ -0,0 +1,118 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.flume.Sink.Status;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.RollingFileAppender;
+import uk.gov.hmrc.flume.sink.DeliveryTrace.Stage;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples a fraction of the transactions of one HttpSink for stage timing.
+ *
+ * The timings of each sampled transaction are added to the per-stage
+ * histograms of the trace counter, and when a trace file is configured, also
+ * written to it as one line per transaction, with times in nanoseconds. The
+ * file is rolled over when it reaches its maximum size.
+ *
+ * Only used from the sink's runner thread.
+ */
+class DeliveryTracer {
+
+    private static final Logger LOG = Logger.getLogger(DeliveryTracer.class);
+
+    private final String sinkName;
+    private final double sampleRate;
+    private final String traceFile;
+    private final String traceFileMaxSize;
+    private final int traceFileMaxBackups;
+    private final HttpSinkTraceCounter counter;
+
+    private Logger traceLog;
+    private RollingFileAppender appender;
+
+    DeliveryTracer(String sinkName, double sampleRate, String traceFile,
+                   String traceFileMaxSize, int traceFileMaxBackups) {
+        this.sinkName = sinkName;
+        this.sampleRate = sampleRate;
+        this.traceFile = traceFile;
+        this.traceFileMaxSize = traceFileMaxSize;
+        this.traceFileMaxBackups = traceFileMaxBackups;
+        this.counter = new HttpSinkTraceCounter(sinkName + ".trace");
+    }
+
+    void start() {
+        if (sampleRate <= 0) {
+            return;
+        }
+        counter.start();
+
+        if (traceFile != null) {
+            try {
+                appender = new RollingFileAppender(new PatternLayout("%d{ISO8601} %m%n"), traceFile, true);
+                appender.setMaxFileSize(traceFileMaxSize);
+                appender.setMaxBackupIndex(traceFileMaxBackups);
+
+                traceLog = Logger.getLogger(DeliveryTracer.class.getName() + "." + sinkName);
+                traceLog.setLevel(Level.INFO);
+                traceLog.setAdditivity(false);
+                traceLog.addAppender(appender);
+            } catch (IOException e) {
+                LOG.error("Unable to open trace file " + traceFile + ", tracing to metrics only", e);
+            }
+        }
+    }
+
+    void stop() {
+        if (sampleRate <= 0) {
+            return;
+        }
+        counter.stop();
+
+        if (traceLog != null) {
+            traceLog.removeAppender(appender);
+            appender.close();
+            traceLog = null;
+            appender = null;
+        }
+    }
+
+    /**
+     * Returns a new trace if this transaction is sampled, or the shared
+     * UNSAMPLED trace if not.
+     */
+    DeliveryTrace sample() {
+        if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            return DeliveryTrace.sampled();
+        }
+        return DeliveryTrace.UNSAMPLED;
+    }
+
+    void finish(DeliveryTrace trace, int eventCount, Status status) {
+        if (!trace.isSampled()) {
+            return;
+        }
+
+        long totalNanos = trace.getElapsedNanos();
+        counter.record(trace, totalNanos);
+
+        if (traceLog != null) {
+            StringBuilder record = new StringBuilder()
+                    .append("sink=").append(sinkName)
+                    .append(" events=").append(eventCount)
+                    .append(" status=").append(status);
+            for (Stage stage : Stage.values()) {
+                record.append(' ').append(stage.name().toLowerCase()).append('=').append(trace.getStageNanos(stage));
+            }
+            record.append(" total=").append(totalNanos);
+            traceLog.info(record);
+        }
+    }
+
+    HttpSinkTraceCounter getCounter() {
+        return counter;
+    }
+}
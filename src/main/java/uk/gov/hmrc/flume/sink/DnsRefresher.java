@@ -0,0 +1,75 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.log4j.Logger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically resolves the endpoint host name on a background thread.
+ *
+ * The JVM caches successful lookups for networkaddress.cache.ttl seconds (30
+ * seconds by default), after which the next connection attempt blocks on a
+ * fresh lookup. A lookup made here after an entry has expired stores the
+ * result in that cache, so some of those lookups happen on this thread rather
+ * than on the request path. This only reduces lookups on the request path: the
+ * JVM cache does not refresh entries ahead of expiry, so a lookup of an entry
+ * that is still cached refreshes nothing, and an entry that expires between
+ * two refreshes is still looked up by the next request. The refresher keeps
+ * no addresses of its own, and a failed lookup is handled by the JVM cache as
+ * it would be without it.
+ */
+class DnsRefresher {
+
+    private static final Logger LOG = Logger.getLogger(DnsRefresher.class);
+
+    private final String host;
+    private final long refreshInterval;
+
+    private ScheduledExecutorService executor;
+    private InetAddress[] lastResolved = new InetAddress[0];
+
+    DnsRefresher(String host, long refreshInterval) {
+        this.host = host;
+        this.refreshInterval = refreshInterval;
+    }
+
+    void start() {
+        refresh();
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "http-sink-dns-" + host);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    InetAddress[] resolve() throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    void refresh() {
+        try {
+            InetAddress[] resolved = resolve();
+            if (!Arrays.equals(resolved, lastResolved)) {
+                LOG.info("Resolved " + host + " to " + Arrays.toString(resolved));
+                lastResolved = resolved;
+            }
+        } catch (UnknownHostException e) {
+            // the next refresh will try again
+            LOG.warn("Unable to resolve endpoint host " + host, e);
+        }
+    }
+}
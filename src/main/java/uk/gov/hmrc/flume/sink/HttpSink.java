@@ -3,24 +3,43 @@ package uk.gov.hmrc.flume.sink;
 import com.google.common.collect.ImmutableMap;
 import org.apache.flume.*;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.instrumentation.SinkCounter;
 import org.apache.flume.sink.AbstractSink;
 import org.apache.log4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.gov.hmrc.flume.instrumentation.RateLimitedLog;
+import uk.gov.hmrc.flume.sink.DeliveryTrace.Stage;
 
 /**
  * HTTP Sink Implementation for Apache Flume.
  *
  * Behaviour of this sink is that it will take events from the channel, and
  * send those events to a remote service using an HTTP POST request. The event
- * content is sent as the POST body.
+ * content is sent as the POST body. When more than one event is sent in a
+ * request, the event bodies are separated by the batch delimiter.
  *
  * Configurable options are :
  * endpoint - the fully qualified URL endpoint to POST to (required, no default)
@@ -37,6 +56,41 @@ import java.util.Map;
  *                   response code is returned from the remote host
  * incrementMetrics.[code] - whether to increment the sink metrics when the given HTTP response code is returned from
  *                           the remote host
+ * prewarmConnections - the number of connections opened in the background with a HEAD request to the endpoint when
+ *                      the sink starts (default 0)
+ * dnsRefreshInterval - how often to re-resolve the endpoint host in the background, reducing DNS lookups on the
+ *                      request path, 0 to disable (default 0ms)
+ * sslSessionCacheSize - the TLS client session cache size, 0 to use the JVM default (default 0)
+ * sslSessionTimeout - the TLS client session timeout, 0 to use the JVM default (default 0s)
+ * sharedClient - whether to share connection handling with other sinks in the JVM using the same host, port and
+ *                settings (default false)
+ * hedgeEnabled - whether to hedge slow requests to the hedge endpoint (default false)
+ * hedgeEndpoint - the fully qualified URL endpoint to send hedged requests to (required if hedging is enabled)
+ * hedgePercentile - the percentile of recent response times to wait for before hedging (default 95)
+ * hedgeMinDelay - the minimum time to wait for a response before hedging (default 50ms)
+ * hedgeBudget - the maximum percentage of requests that may be hedged (default 5)
+ * batchSize - the maximum number of events taken from the channel in one transaction (default 1)
+ * batchDelimiter - the separator written between event bodies in one request (default newline)
+ * laneHeader - the event header used to assign events to priority lanes (no default)
+ * lanes - the priority lane names, highest priority first (no default)
+ * lanes.[lane].batchSize - the maximum number of events sent in one request for the lane (default batchSize)
+ * traceSampleRate - the fraction of transactions to record stage timings for, 0 to disable (default 0)
+ * traceFile - the file to write sampled stage timings to (no default)
+ * traceFileMaxSize - the size at which the trace file is rolled over (default 10MB)
+ * traceFileMaxBackups - the number of rolled over trace files to keep (default 5)
+ * idleStrategy - backoff to return BACKOFF when the channel is empty, or adaptive to poll it (default backoff)
+ * idleSpins - the number of polls made straight away once the channel is empty (default 100)
+ * idleYields - the number of polls made after yielding the processor once spinning is done (default 10)
+ * idleMaxLatency - the maximum time to park between polls of an empty channel (default 10ms)
+ * idleTimeout - the maximum time one transaction polls an empty channel (default 1000ms)
+ * maxRequestBytes - the maximum size of a request body, 0 for no limit (default 0)
+ * oversizeAction - what to do with an event larger than maxRequestBytes : drop, deadLetter or chunked (default chunked)
+ * deadLetterDirectory - the directory oversized events are written to (required if oversizeAction is deadLetter, and
+ *                       used for events still rejected when sent chunked)
+ * idempotencyHeader - the HTTP request header to send the idempotency key of each request in (no default)
+ * idempotencyEventHeader - the event header holding the key of each event, instead of a hash of its body (no default)
+ * acknowledgedKeysSize - the number of acknowledged event keys remembered across rollbacks, 0 to disable (default 0,
+ *                        requires idempotencyEventHeader)
  *
  * Note that the values for [code] above can be either a single HTTP status code, i.e. 503 or 200, or a group of one
  * hundred status codes, i.e. 2XX or 5XX. If a single code and a group are specified, then the most specific result is
@@ -48,6 +102,80 @@ import java.util.Map;
  * from the channel.
  *
  * Any empty or null events are consumed without any request being made to the HTTP endpoint.
+ *
+ * By default an empty channel returns BACKOFF, and the sink runner then sleeps
+ * on its backoff schedule, which can delay the first event after a quiet
+ * period by seconds. With the adaptive idle strategy the sink instead keeps
+ * polling the channel, first straight away, then yielding between polls, and
+ * then parking for doubling times up to idleMaxLatency. After idleTimeout the
+ * empty transaction is committed and READY returned, so the runner calls the
+ * sink again without sleeping. Transactions that find the channel empty are
+ * counted in the idle count, separately from the backoffs caused by failed
+ * deliveries.
+ *
+ * When maxRequestBytes is set, events are split into requests that stay
+ * under it, and any single event larger than it is dropped, written to the
+ * dead letter directory, or sent on its own with chunked transfer encoding,
+ * according to oversizeAction. A 413 response to a request of several events
+ * splits it in two and sends each half in turn, rather than rolling back.
+ * When maxRequestBytes or oversizeAction is set, a 413 response to a single
+ * event is handled as an oversized event, so with the chunked action it is
+ * sent again chunked. If a chunked event is also rejected with 413, it is
+ * written to the dead letter directory if one is set, so that one event the
+ * endpoint never accepts cannot stall the sink. Otherwise a 413 response to
+ * a single event is handled by the rollback, backoff and metrics settings
+ * like any other status code, so by default it is rolled back. A chunked
+ * event rolled back this way is retried until it is accepted, so each such
+ * rollback logs a rate limited warning.
+ *
+ * If the status code of any request in a transaction causes a rollback, no
+ * further requests are made and the whole transaction is rolled back. The sink
+ * backs off if any request in the transaction causes a backoff.
+ *
+ * When idempotencyHeader is set, each request carries a key in that header,
+ * so the endpoint can tell a request sent again after a rollback from new
+ * data. Each event's key is a 64 bit hash of its idempotencyEventHeader value,
+ * or of its body if that is not set or missing, and the key of a request of
+ * several events combines their keys in order. When acknowledgedKeysSize is
+ * set, the keys of events acknowledged by the endpoint in a transaction that
+ * is then rolled back are counted, so when those events are taken again they
+ * are skipped instead of being sent twice. Only events carrying an
+ * idempotencyEventHeader value are counted or skipped, since the rolled back
+ * events may be taken by another sink, and a body hash would then skip the
+ * next new event with the same body. Each count skips one event, and all
+ * counts are cleared once a transaction commits.
+ *
+ * When priority lanes are configured, each event is assigned to the lane named
+ * by its laneHeader value, or to the last lane if the value is missing or not a
+ * lane name. Lanes are sent in order, so higher priority events taken in the
+ * same transaction are sent first, in requests of at most the lane's batch
+ * size. As soon as any lane other than the last has a full request the sink
+ * stops taking events and sends, so urgent events are not held back while the
+ * rest of the transaction fills up with bulk events. Events are still taken
+ * from the channel in order, so lanes only reorder events within one
+ * transaction.
+ *
+ * When hedging is enabled, a request that has not been answered by the endpoint
+ * within the hedge delay is also sent to the hedge endpoint. The first response
+ * that would commit the transaction is used and the other request is abandoned,
+ * so the same event may be delivered to both endpoints. Only enable hedging
+ * where the downstream service tolerates duplicates.
+ *
+ * Flume applies a configuration change by stopping every sink and starting
+ * new instances. So that a reload does not start the sink cold, a stopped
+ * sink leaves its state to the next sink started with the same name within
+ * a minute. The new sink takes over the transport, with its TLS sessions and
+ * DNS refresher, if the endpoint host, port and transport settings are
+ * unchanged, and the response times used by the latency aware sink
+ * processor if the endpoint is unchanged. It also takes over the hedging
+ * history if the endpoint and the hedge settings are unchanged.
+ *
+ * When tracing is enabled, the time a sampled transaction spends taking
+ * events, encoding request bodies, opening connections, writing requests,
+ * waiting for responses and committing is recorded. With hedging, opening,
+ * writing and waiting happen on other threads and are all recorded as
+ * waiting for the response. Time the adaptive idle strategy spends waiting
+ * for an empty channel is recorded as idle time rather than taking events.
  */
 public class HttpSink extends AbstractSink implements Configurable {
 
@@ -57,22 +185,71 @@ public class HttpSink extends AbstractSink implements Configurable {
     private static final int DEFAULT_REQUEST_TIMEOUT = 5000;
     private static final String DEFAULT_CONTENT_TYPE = "text/plain";
     private static final String DEFAULT_ACCEPT_HEADER = "text/plain";
+    private static final int DEFAULT_PREWARM_CONNECTIONS = 0;
+    private static final int DEFAULT_DNS_REFRESH_INTERVAL = 0;
+    private static final int DEFAULT_SSL_SESSION_CACHE_SIZE = 0;
+    private static final int DEFAULT_SSL_SESSION_TIMEOUT = 0;
+    private static final double DEFAULT_HEDGE_PERCENTILE = 95;
+    private static final int DEFAULT_HEDGE_MIN_DELAY = 50;
+    private static final double DEFAULT_HEDGE_BUDGET = 5;
+    private static final int DEFAULT_BATCH_SIZE = 1;
+    private static final String DEFAULT_BATCH_DELIMITER = "\n";
+    private static final String DEFAULT_LANE = "default";
+    private static final String DEFAULT_TRACE_FILE_MAX_SIZE = "10MB";
+    private static final int DEFAULT_TRACE_FILE_MAX_BACKUPS = 5;
+    private static final int DEFAULT_IDLE_SPINS = 100;
+    private static final int DEFAULT_IDLE_YIELDS = 10;
+    private static final int DEFAULT_IDLE_MAX_LATENCY = 10;
+    private static final int DEFAULT_IDLE_TIMEOUT = 1000;
+    private static final long DEFAULT_MAX_REQUEST_BYTES = 0;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int HTTP_ENTITY_TOO_LARGE = 413;
+    private static final long OVERSIZE_LOG_INTERVAL = 10000;
+    private static final int DEFAULT_ACKNOWLEDGED_KEYS_SIZE = 0;
+
+    private enum OversizeAction {
+        DROP, DEAD_LETTER, CHUNKED
+    }
 
     private URL endpointUrl;
     private HttpURLConnection httpClient;
-    private SinkCounter sinkCounter;
+    private HttpSinkCounter sinkCounter;
+    private HttpTransport transport;
+    private HttpSinkStats stats = new HttpSinkStats();
+    private URL hedgeEndpointUrl;
+    private RequestHedger hedger;
+    private ExecutorService hedgeExecutor;
+    private DeliveryTracer tracer;
+    private IdleStrategy idleStrategy;
+    private long idleTimeoutNanos;
+    private long maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+    private OversizeAction oversizeAction = OversizeAction.CHUNKED;
+    private boolean oversizeConfigured;
+    private File deadLetterDirectory;
+    private final AtomicLong deadLetterSequence = new AtomicLong();
+    private final RateLimitedLog oversizeLog = new RateLimitedLog(LOG, OVERSIZE_LOG_INTERVAL);
+    private final RateLimitedLog oversizeRollbackLog = new RateLimitedLog(LOG, OVERSIZE_LOG_INTERVAL);
+    private String idempotencyHeader;
+    private String idempotencyEventHeader;
+    private int acknowledgedKeysSize = DEFAULT_ACKNOWLEDGED_KEYS_SIZE;
+    private AcknowledgedKeys acknowledgedKeys;
 
     private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
     private int requestTimeout = DEFAULT_REQUEST_TIMEOUT;
     private String contentTypeHeader = DEFAULT_CONTENT_TYPE;
     private String acceptHeader = DEFAULT_ACCEPT_HEADER;
-    private boolean defaultBackoff;
-    private boolean defaultRollback;
-    private boolean defaultIncrementMetrics;
-
-    private HashMap<String, Boolean> backoffOverrides = new HashMap<>();
-    private HashMap<String, Boolean> rollbackOverrides = new HashMap<>();
-    private HashMap<String, Boolean> incrementMetricsOverrides = new HashMap<>();
+    private ResponseDecisions decisions;
+    private int prewarmConnections = DEFAULT_PREWARM_CONNECTIONS;
+    private int dnsRefreshInterval = DEFAULT_DNS_REFRESH_INTERVAL;
+    private int sslSessionCacheSize = DEFAULT_SSL_SESSION_CACHE_SIZE;
+    private int sslSessionTimeout = DEFAULT_SSL_SESSION_TIMEOUT;
+    private boolean sharedClient;
+    private boolean hedgeEnabled;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private byte[] batchDelimiter = DEFAULT_BATCH_DELIMITER.getBytes(StandardCharsets.UTF_8);
+    private String laneHeader;
+    private List<PriorityLane> lanes = new ArrayList<>();
+    private Map<String, PriorityLane> lanesByName = new HashMap<>();
 
     public void configure(Context context) {
         String configuredEndpoint = context.getString("endpoint", "");
@@ -95,6 +272,7 @@ public class HttpSink extends AbstractSink implements Configurable {
             throw new IllegalArgumentException("Request timeout must be a non-zero and positive");
         }
         LOG.info("Using request timeout : " + requestTimeout);
+        stats.setFailureLatency(TimeUnit.MILLISECONDS.toNanos(requestTimeout));
 
         acceptHeader = context.getString("acceptHeader", DEFAULT_ACCEPT_HEADER);
         LOG.info("Using Accept header value : " + acceptHeader);
@@ -102,21 +280,72 @@ public class HttpSink extends AbstractSink implements Configurable {
         contentTypeHeader = context.getString("contentTypeHeader", DEFAULT_CONTENT_TYPE);
         LOG.info("Using Content-Type header value : " + contentTypeHeader);
 
-        defaultBackoff = context.getBoolean("defaultBackoff", true);
+        boolean defaultBackoff = context.getBoolean("defaultBackoff", true);
         LOG.info("Channel backoff by default is " + Boolean.toString(defaultBackoff));
 
-        defaultRollback = context.getBoolean("defaultRollback", true);
+        boolean defaultRollback = context.getBoolean("defaultRollback", true);
         LOG.info("Transaction rollback by default is " + Boolean.toString(defaultRollback));
 
-        defaultIncrementMetrics = context.getBoolean("defaultIncrementMetrics", false);
+        boolean defaultIncrementMetrics = context.getBoolean("defaultIncrementMetrics", false);
         LOG.info("Incrementing metrics by default is " + Boolean.toString(defaultIncrementMetrics));
 
-        parseConfigOverrides("backoff", context, backoffOverrides);
-        parseConfigOverrides("rollback", context, rollbackOverrides);
-        parseConfigOverrides("incrementMetrics", context, incrementMetricsOverrides);
+        decisions = new ResponseDecisions(
+                parseConfigOverrides("rollback", context), defaultRollback,
+                parseConfigOverrides("backoff", context), defaultBackoff,
+                parseConfigOverrides("incrementMetrics", context), defaultIncrementMetrics);
+
+        prewarmConnections = context.getInteger("prewarmConnections", DEFAULT_PREWARM_CONNECTIONS);
+        if (prewarmConnections < 0) {
+            throw new IllegalArgumentException("Prewarm connections must be zero or positive");
+        }
+        LOG.info("Using prewarm connections : " + prewarmConnections);
+
+        dnsRefreshInterval = context.getInteger("dnsRefreshInterval", DEFAULT_DNS_REFRESH_INTERVAL);
+        if (dnsRefreshInterval < 0) {
+            throw new IllegalArgumentException("DNS refresh interval must be zero or positive");
+        }
+        LOG.info("Using DNS refresh interval : " + dnsRefreshInterval);
+
+        sslSessionCacheSize = context.getInteger("sslSessionCacheSize", DEFAULT_SSL_SESSION_CACHE_SIZE);
+        if (sslSessionCacheSize < 0) {
+            throw new IllegalArgumentException("SSL session cache size must be zero or positive");
+        }
+        LOG.info("Using SSL session cache size : " + sslSessionCacheSize);
+
+        sslSessionTimeout = context.getInteger("sslSessionTimeout", DEFAULT_SSL_SESSION_TIMEOUT);
+        if (sslSessionTimeout < 0) {
+            throw new IllegalArgumentException("SSL session timeout must be zero or positive");
+        }
+        LOG.info("Using SSL session timeout : " + sslSessionTimeout);
+
+        sharedClient = context.getBoolean("sharedClient", false);
+        LOG.info("Sharing client with other sinks is " + Boolean.toString(sharedClient));
+
+        hedgeEnabled = context.getBoolean("hedgeEnabled", false);
+        LOG.info("Hedging requests is " + Boolean.toString(hedgeEnabled));
+        if (hedgeEnabled) {
+            configureHedging(context);
+        }
+
+        batchSize = context.getInteger("batchSize", DEFAULT_BATCH_SIZE);
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be a non-zero and positive");
+        }
+        LOG.info("Using batch size : " + batchSize);
+
+        String configuredDelimiter = context.getString("batchDelimiter", DEFAULT_BATCH_DELIMITER);
+        if (configuredDelimiter != null) {
+            batchDelimiter = configuredDelimiter.getBytes(StandardCharsets.UTF_8);
+        }
+
+        configureLanes(context);
+        configureTracing(context);
+        configureIdleStrategy(context);
+        configureRequestSize(context);
+        configureIdempotency(context);
 
         if(this.sinkCounter == null) {
-            this.sinkCounter = new SinkCounter(this.getName());
+            this.sinkCounter = new HttpSinkCounter(this.getName());
         }
     }
 
@@ -124,112 +353,598 @@ public class HttpSink extends AbstractSink implements Configurable {
     public void start() {
         LOG.info("Starting HttpSink");
         sinkCounter.start();
+        for (PriorityLane lane : lanes) {
+            lane.getCounter().start();
+        }
+
+        transport = openTransport();
+        takeOverRetainedState();
+
+        if (hedgeEnabled) {
+            hedgeExecutor = newHedgeExecutor();
+        }
+        tracer.start();
+    }
+
+    /**
+     * Opens the transport through the registry, shared or kept under the
+     * sink name, so that a sink started after a reload can take it over.
+     * Unnamed sinks own a transport outright.
+     */
+    private HttpTransport openTransport() {
+        HttpTransport opened;
+        if (sharedClient || getName() != null) {
+            opened = HttpTransportRegistry.SHARED.acquire(transportOwner(),
+                    endpointUrl, dnsRefreshInterval, sslSessionCacheSize, sslSessionTimeout);
+        } else {
+            opened = new HttpTransport(endpointUrl, dnsRefreshInterval, sslSessionCacheSize, sslSessionTimeout);
+            opened.start();
+        }
+
+        if (prewarmConnections > 0) {
+            opened.prewarm(endpointUrl, prewarmConnections, connectTimeout, requestTimeout);
+        }
+        return opened;
+    }
+
+    private void closeTransport() {
+        if (sharedClient || getName() != null) {
+            HttpTransportRegistry.SHARED.release(transportOwner(), transport);
+        } else {
+            transport.stop();
+        }
+    }
+
+    private String transportOwner() {
+        return sharedClient ? null : getName();
+    }
+
+    /**
+     * Takes over the response times, and the hedging history if the hedge
+     * settings are unchanged, left by a stopped sink with the same name and
+     * endpoint.
+     */
+    private void takeOverRetainedState() {
+        HttpSinkHandover.Retained retained = getName() == null
+                ? null
+                : HttpSinkHandover.SHARED.take(getName(), endpointUrl.toString());
+        if (retained == null) {
+            return;
+        }
+
+        LOG.info("Taking over response times from the previous " + getName());
+        retained.getStats().setFailureLatency(TimeUnit.MILLISECONDS.toNanos(requestTimeout));
+        stats = retained.getStats();
+
+        RequestHedger retainedHedger = retained.getHedger();
+        if (hedger != null && retainedHedger != null && hedger.hasSameSettings(retainedHedger)) {
+            LOG.info("Taking over hedging history from the previous " + getName());
+            hedger = retainedHedger;
+        }
+    }
+
+    private ExecutorService newHedgeExecutor() {
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "http-sink-hedge-" + getName());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
     public void stop() {
         LOG.info("Stopping HttpSink");
         sinkCounter.stop();
+        for (PriorityLane lane : lanes) {
+            lane.getCounter().stop();
+        }
+
+        if (transport != null) {
+            closeTransport();
+            transport = null;
+        }
+        if (getName() != null) {
+            HttpSinkHandover.SHARED.retain(getName(), endpointUrl.toString(), stats, hedger);
+        }
+
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+            hedgeExecutor = null;
+        }
+        tracer.stop();
     }
 
     public Status process() throws EventDeliveryException {
         Status status = null;
-        OutputStream outputStream = null;
+        DeliveryTrace trace = tracer.sample();
+        int eventCount = 0;
 
         Channel ch = getChannel();
         Transaction txn = ch.getTransaction();
         txn.begin();
 
         try {
+            long takeStart = trace.start();
+            eventCount = takeEvents(ch, trace);
+            // time waiting on an empty channel is recorded as IDLE instead
+            trace.record(Stage.TAKE, takeStart + trace.getStageNanos(Stage.IDLE));
+
+            if (eventCount > 0) {
+                sinkCounter.addToEventDrainAttemptCount(eventCount);
+
+                DeliveryOutcome outcome = new DeliveryOutcome();
+                for (PriorityLane lane : lanes) {
+                    if (!sendLane(lane, outcome, trace)) {
+                        break;
+                    }
+                }
+
+                long commitStart = trace.start();
+                if (outcome.rollback) {
+                    txn.rollback();
+                    rollbackAcknowledgedKeys();
+                } else {
+                    txn.commit();
+                    commitAcknowledgedKeys();
+                }
+                trace.record(Stage.COMMIT, commitStart);
+                status = outcome.backoff ? Status.BACKOFF : Status.READY;
+                if (outcome.backoff) {
+                    sinkCounter.incrementDeliveryBackoffCount();
+                }
+
+            } else {
+                long commitStart = trace.start();
+                txn.commit();
+                commitAcknowledgedKeys();
+                trace.record(Stage.COMMIT, commitStart);
+                status = idleStrategy == null ? Status.BACKOFF : Status.READY;
+
+                LOG.debug("Processed empty event");
+            }
+
+        } catch (Throwable t) {
+            txn.rollback();
+            rollbackAcknowledgedKeys();
+            status = Status.BACKOFF;
+            sinkCounter.incrementDeliveryBackoffCount();
+
+            LOG.error("Error sending HTTP request, retrying", t);
+
+            // re-throw all Errors
+            if (t instanceof Error) {
+                throw (Error)t;
+            }
+
+        } finally {
+            txn.close();
+            tracer.finish(trace, eventCount, status);
+        }
+
+        return status;
+    }
+
+    private void commitAcknowledgedKeys() {
+        if (acknowledgedKeys != null) {
+            acknowledgedKeys.commit();
+        }
+    }
+
+    private void rollbackAcknowledgedKeys() {
+        if (acknowledgedKeys != null) {
+            acknowledgedKeys.rollback();
+        }
+    }
+
+    /**
+     * Takes up to batchSize events from the channel into their lanes, and
+     * returns the number taken. Events without a body, and events already
+     * acknowledged before a rollback, are consumed without being added to a
+     * lane.
+     */
+    private int takeEvents(Channel ch, DeliveryTrace trace) {
+        for (PriorityLane lane : lanes) {
+            lane.clear();
+        }
+        boolean keyed = idempotencyHeader != null || acknowledgedKeys != null;
+
+        int taken = 0;
+        int eventCount = 0;
+        while (taken < batchSize) {
             Event event = ch.take();
+            if (event == null && taken == 0 && idleStrategy != null) {
+                long idleStart = trace.start();
+                event = awaitEvent(ch);
+                trace.record(Stage.IDLE, idleStart);
+            }
+            if (event == null) {
+                break;
+            }
+            taken++;
+
+            byte[] eventBody = event.getBody();
+            if (eventBody == null || eventBody.length == 0) {
+                continue;
+            }
+
+            long key = keyed ? keyOf(event) : 0;
+            if (acknowledgedKeys != null && hasEventKey(event) && acknowledgedKeys.skip(key)) {
+                sinkCounter.incrementDuplicateSkippedCount();
+                LOG.debug("Skipped event already acknowledged before a rollback");
+                continue;
+            }
+
+            PriorityLane lane = laneOf(event);
+            lane.add(event, key);
+            eventCount++;
+
+            if (lane.isFull() && lane != lanes.get(lanes.size() - 1)) {
+                break;
+            }
+        }
+
+        if (taken == 0) {
+            sinkCounter.incrementBatchEmptyCount();
+            sinkCounter.incrementIdleCount();
+        } else if (taken < batchSize) {
+            sinkCounter.incrementBatchUnderflowCount();
+        } else {
+            sinkCounter.incrementBatchCompleteCount();
+        }
+
+        for (PriorityLane lane : lanes) {
+            lane.getCounter().setDepth(lane.getEvents().size());
+        }
+        return eventCount;
+    }
+
+    /**
+     * Polls an empty channel on the idle schedule, until an event arrives,
+     * the idle timeout passes, or the runner thread is interrupted to stop.
+     */
+    private Event awaitEvent(Channel ch) {
+        long deadline = System.nanoTime() + idleTimeoutNanos;
+        for (int poll = 0; ; poll++) {
+            idleStrategy.idle(poll);
 
-            byte[] eventBody = null;
+            Event event = ch.take();
             if (event != null) {
-                eventBody = event.getBody();
+                return event;
+            }
+            if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                return null;
             }
+        }
+    }
+
+    private long keyOf(Event event) {
+        if (idempotencyEventHeader != null) {
+            Map<String, String> headers = event.getHeaders();
+            String value = headers == null ? null : headers.get(idempotencyEventHeader);
+            if (value != null) {
+                return IdempotencyKeys.hash(value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return IdempotencyKeys.hash(event.getBody());
+    }
 
-            if (eventBody != null && eventBody.length > 0) {
-                sinkCounter.incrementEventDrainAttemptCount();
-                LOG.debug("Sending request : " + new String(event.getBody()));
+    /**
+     * Returns whether the event's key comes from its idempotencyEventHeader,
+     * rather than a hash of its body that other events may share.
+     */
+    private boolean hasEventKey(Event event) {
+        Map<String, String> headers = event.getHeaders();
+        return idempotencyEventHeader != null && headers != null && headers.get(idempotencyEventHeader) != null;
+    }
 
-                try {
-                    httpClient = getConnection();
+    private PriorityLane laneOf(Event event) {
+        if (laneHeader != null) {
+            Map<String, String> headers = event.getHeaders();
+            String laneName = headers == null ? null : headers.get(laneHeader);
+            PriorityLane lane = laneName == null ? null : lanesByName.get(laneName);
+            if (lane != null) {
+                return lane;
+            }
+        }
+        return lanes.get(lanes.size() - 1);
+    }
 
-                    outputStream = httpClient.getOutputStream();
-                    outputStream.write(eventBody);
-                    outputStream.flush();
-                    outputStream.close();
+    /**
+     * Sends the events in the lane in requests of at most the lane batch size,
+     * and at most maxRequestBytes. Returns false if a request caused a
+     * rollback, in which case the rest of the transaction is not sent.
+     */
+    private boolean sendLane(PriorityLane lane, DeliveryOutcome outcome, DeliveryTrace trace) {
+        List<Event> events = lane.getEvents();
+        int start = 0;
+        while (start < events.size()) {
+            int end = batchEnd(events, start, lane.getBatchSize());
 
-                    int httpStatusCode = httpClient.getResponseCode();
-                    LOG.debug("Got status code : " + httpStatusCode);
+            boolean sent;
+            if (end == start) {
+                sent = sendOversized(lane, start, outcome, trace);
+                end = start + 1;
+            } else {
+                sent = sendBatch(lane, start, end, false, outcome, trace);
+            }
+            if (!sent) {
+                return false;
+            }
+            start = end;
+        }
+        return true;
+    }
 
-                    httpClient.getInputStream().close();
-                    LOG.debug("Response processed and closed");
+    /**
+     * Returns the end of the batch starting at the given event, which holds
+     * at most maxEvents events and, when a limit is set, at most
+     * maxRequestBytes once joined. Returns start if the first event is larger
+     * than maxRequestBytes on its own.
+     */
+    private int batchEnd(List<Event> events, int start, int maxEvents) {
+        int end = Math.min(events.size(), start + maxEvents);
+        if (maxRequestBytes <= 0) {
+            return end;
+        }
 
-                    if (httpStatusCode >= 100) {
-                        String httpStatusString = String.valueOf(httpStatusCode);
+        long requestBytes = 0;
+        for (int i = start; i < end; i++) {
+            requestBytes += events.get(i).getBody().length;
+            if (i > start) {
+                requestBytes += batchDelimiter.length;
+            }
+            if (requestBytes > maxRequestBytes) {
+                return i;
+            }
+        }
+        return end;
+    }
 
-                        boolean shouldRollback = findOverrideValue(httpStatusString, rollbackOverrides, defaultRollback);
-                        if (shouldRollback) {
-                            txn.rollback();
-                        } else {
-                            txn.commit();
-                        }
+    /**
+     * Handles an event that is too large to send as a normal request.
+     * Returns false if the transaction should be rolled back.
+     */
+    private boolean sendOversized(PriorityLane lane, int index, DeliveryOutcome outcome, DeliveryTrace trace) {
+        sinkCounter.incrementOversizeEventCount();
 
-                        boolean shouldBackoff = findOverrideValue(httpStatusString, backoffOverrides, defaultBackoff);
-                        if (shouldBackoff) {
-                            status = Status.BACKOFF;
-                        } else {
-                            status = Status.READY;
-                        }
+        if (oversizeAction == OversizeAction.CHUNKED) {
+            return sendBatch(lane, index, index + 1, true, outcome, trace);
+        }
+        return discardOversized(lane, index, outcome);
+    }
 
-                        boolean shouldIncrementMetrics = findOverrideValue(httpStatusString, incrementMetricsOverrides, defaultIncrementMetrics);
-                        if (shouldIncrementMetrics) {
-                            sinkCounter.incrementEventDrainSuccessCount();
-                        }
+    /**
+     * Writes an oversized event to the dead letter directory if one is set,
+     * or otherwise, with the drop action, drops it. Returns false if the transaction should be
+     * rolled back.
+     */
+    private boolean discardOversized(PriorityLane lane, int index, DeliveryOutcome outcome) {
+        Event event = lane.getEvents().get(index);
 
-                        if (shouldRollback) {
-                            if (shouldBackoff) {
-                                LOG.info(String.format("Got status code %d from HTTP server. Rolled back event and backed off.", httpStatusCode));
-                            } else {
-                                LOG.info(String.format("Got status code %d from HTTP server. Rolled back event for retry.", httpStatusCode));
-                            }
-                        }
-                    } else {
-                        txn.rollback();
-                        status = Status.BACKOFF;
+        if (deadLetterDirectory == null) {
+            oversizeLog.warn(String.format("Dropped event of %d bytes, larger than the maximum request size",
+                    event.getBody().length));
+            acknowledge(lane, index, index + 1);
+            return true;
+        }
 
-                        LOG.warn("Malformed response returned from server, retrying");
-                    }
+        try {
+            File deadLetter = writeDeadLetter(event);
+            oversizeLog.warn(String.format("Wrote event of %d bytes, larger than the maximum request size, to %s",
+                    event.getBody().length, deadLetter));
+            acknowledge(lane, index, index + 1);
+            return true;
+        } catch (IOException e) {
+            outcome.rollback = true;
+            outcome.backoff = true;
 
-                } catch (IOException e) {
-                    txn.rollback();
-                    status = Status.BACKOFF;
+            LOG.error("Error writing oversized event to the dead letter directory, retrying", e);
+            return false;
+        }
+    }
+
+    private File writeDeadLetter(Event event) throws IOException {
+        File deadLetter = new File(deadLetterDirectory, String.format("%s-%d-%d.event",
+                getName(), System.currentTimeMillis(), deadLetterSequence.incrementAndGet()));
+        Files.write(deadLetter.toPath(), event.getBody());
+        return deadLetter;
+    }
 
-                    LOG.error("Error opening connection, or request timed out", e);
+    /**
+     * Records the events from start to end of the lane as acknowledged by
+     * the endpoint, so they are not sent again if the transaction is rolled
+     * back. Only events keyed by their idempotencyEventHeader are recorded.
+     */
+    private void acknowledge(PriorityLane lane, int start, int end) {
+        if (acknowledgedKeys != null) {
+            List<Event> events = lane.getEvents();
+            long[] keys = lane.getKeys();
+            for (int i = start; i < end; i++) {
+                if (hasEventKey(events.get(i))) {
+                    acknowledgedKeys.acknowledge(keys[i]);
                 }
+            }
+        }
+    }
+
+    /**
+     * Sends the events from start to end of the lane in one request, using
+     * chunked transfer encoding if chunked is set. Returns false if the
+     * transaction should be rolled back.
+     */
+    private boolean sendBatch(PriorityLane lane, int start, int end, boolean chunked,
+                              DeliveryOutcome outcome, DeliveryTrace trace) {
+        List<Event> batch = lane.getEvents().subList(start, end);
+        long encodeStart = trace.start();
+        byte[] requestBody = requestBody(batch);
+        String idempotencyKey = idempotencyHeader == null
+                ? null
+                : IdempotencyKeys.toString(IdempotencyKeys.combine(lane.getKeys(), start, end));
+        trace.record(Stage.ENCODE, encodeStart);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sending request : " + new String(requestBody, StandardCharsets.UTF_8));
+        }
 
+        long requestStart = System.nanoTime();
+        try {
+            int httpStatusCode;
+            if (hedgeEnabled && !chunked) {
+                long hedgeStart = trace.start();
+                httpStatusCode = sendHedged(requestBody, idempotencyKey);
+                trace.record(Stage.RESPONSE, hedgeStart);
             } else {
-                txn.commit();
-                status = Status.BACKOFF;
+                long connectStart = trace.start();
+                httpClient = chunked ? getChunkedConnection(idempotencyKey) : getConnection(idempotencyKey);
+                trace.record(Stage.CONNECT, connectStart);
+                httpStatusCode = sendRequest(httpClient, requestBody, trace);
+            }
 
-                LOG.warn("Processed empty event");
+            long requestTime = System.nanoTime() - requestStart;
+            if (httpStatusCode >= 500 || httpStatusCode < 100) {
+                stats.recordFailure(requestTime);
+            } else {
+                stats.recordSuccess(requestTime);
             }
+            lane.getCounter().recordRequest(batch.size(), requestTime);
 
-        } catch (Throwable t) {
-            txn.rollback();
-            status = Status.BACKOFF;
+            if (httpStatusCode == HTTP_ENTITY_TOO_LARGE && batch.size() > 1) {
+                LOG.info(String.format("Got status code %d from HTTP server. Splitting request of %d events.",
+                        httpStatusCode, batch.size()));
+                sinkCounter.incrementRequestSplitCount();
 
-            LOG.error("Error sending HTTP request, retrying", t);
+                int middle = start + batch.size() / 2;
+                return sendBatch(lane, start, middle, false, outcome, trace)
+                        && sendBatch(lane, middle, end, false, outcome, trace);
+            }
+            // without explicit oversize settings, or anywhere to keep it, a
+            // rejected event is left to the status code decisions
+            if (httpStatusCode == HTTP_ENTITY_TOO_LARGE && oversizeConfigured
+                    && (!chunked || deadLetterDirectory != null)) {
+                LOG.info(String.format("Got status code %d from HTTP server for a single event%s.",
+                        httpStatusCode, chunked ? " sent chunked" : ""));
+                return chunked ? discardOversized(lane, start, outcome) : sendOversized(lane, start, outcome, trace);
+            }
 
-            // re-throw all Errors
-            if (t instanceof Error) {
-                throw (Error)t;
+            if (httpStatusCode >= 100) {
+                boolean shouldRollback = decisions.shouldRollback(httpStatusCode);
+                boolean shouldBackoff = decisions.shouldBackoff(httpStatusCode);
+                outcome.rollback |= shouldRollback;
+                outcome.backoff |= shouldBackoff;
+
+                boolean shouldIncrementMetrics = decisions.shouldIncrementMetrics(httpStatusCode);
+                if (shouldIncrementMetrics) {
+                    sinkCounter.addToEventDrainSuccessCount(batch.size());
+                }
+
+                if (shouldRollback) {
+                    if (chunked && httpStatusCode == HTTP_ENTITY_TOO_LARGE) {
+                        oversizeRollbackLog.warn(String.format("Rolled back event of %d bytes still rejected with "
+                                + "status code %d when sent chunked. It will be retried until deadLetterDirectory "
+                                + "or rollback.413 = false is set", batch.get(0).getBody().length, httpStatusCode));
+                    }
+                    if (shouldBackoff) {
+                        LOG.info(String.format("Got status code %d from HTTP server. Rolled back event and backed off.", httpStatusCode));
+                    } else {
+                        LOG.info(String.format("Got status code %d from HTTP server. Rolled back event for retry.", httpStatusCode));
+                    }
+                    return false;
+                }
+
+                acknowledge(lane, start, end);
+                return true;
+
+            } else {
+                outcome.rollback = true;
+                outcome.backoff = true;
+
+                LOG.warn("Malformed response returned from server, retrying");
+                return false;
             }
 
-        } finally {
-            txn.close();
+        } catch (IOException e) {
+            stats.recordFailure(System.nanoTime() - requestStart);
+            outcome.rollback = true;
+            outcome.backoff = true;
+
+            LOG.error("Error opening connection, or request timed out", e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome.rollback = true;
+            outcome.backoff = true;
+
+            LOG.warn("Interrupted while waiting for a response, retrying");
+            return false;
+        }
+    }
+
+    /**
+     * Joins the event bodies into one request body, separated by the batch
+     * delimiter. A single event body is sent as it is.
+     */
+    private byte[] requestBody(List<Event> batch) {
+        if (batch.size() == 1) {
+            return batch.get(0).getBody();
+        }
+
+        int length = batchDelimiter.length * (batch.size() - 1);
+        for (Event event : batch) {
+            length += event.getBody().length;
+        }
+
+        byte[] requestBody = new byte[length];
+        int offset = 0;
+        for (Event event : batch) {
+            if (offset > 0) {
+                System.arraycopy(batchDelimiter, 0, requestBody, offset, batchDelimiter.length);
+                offset += batchDelimiter.length;
+            }
+            byte[] eventBody = event.getBody();
+            System.arraycopy(eventBody, 0, requestBody, offset, eventBody.length);
+            offset += eventBody.length;
+        }
+        return requestBody;
+    }
+
+    /**
+     * The combined result of the requests sent in one transaction.
+     */
+    private static class DeliveryOutcome {
+
+        private boolean rollback;
+        private boolean backoff;
+    }
+
+    private int sendRequest(HttpURLConnection connection, byte[] eventBody) throws IOException {
+        return sendRequest(connection, eventBody, DeliveryTrace.UNSAMPLED);
+    }
 
+    private int sendRequest(HttpURLConnection connection, byte[] eventBody, DeliveryTrace trace) throws IOException {
+        OutputStream outputStream = null;
+        try {
+            long writeStart = trace.start();
+            outputStream = connection.getOutputStream();
+            outputStream.write(eventBody);
+            outputStream.flush();
+            outputStream.close();
+            trace.record(Stage.WRITE, writeStart);
+
+            long responseStart = trace.start();
+            int httpStatusCode = connection.getResponseCode();
+            LOG.debug("Got status code : " + httpStatusCode);
+
+            // Error responses are only readable from the error stream
+            InputStream responseStream = httpStatusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+            if (responseStream != null) {
+                responseStream.close();
+            }
+            LOG.debug("Response processed and closed");
+            trace.record(Stage.RESPONSE, responseStart);
+
+            return httpStatusCode;
+        } finally {
             if (outputStream != null) {
                 try {
                     outputStream.close();
@@ -238,11 +953,321 @@ public class HttpSink extends AbstractSink implements Configurable {
                 }
             }
         }
+    }
 
-        return status;
+    /**
+     * Sends the request to the primary endpoint, and if no response arrives
+     * within the hedge delay and the hedge budget allows, also to the hedge
+     * endpoint. Returns the status code of the first response that would
+     * commit the transaction, abandoning the other request. If neither does,
+     * the last response received is returned, or the last failure thrown.
+     */
+    private int sendHedged(byte[] eventBody, String idempotencyKey) throws IOException, InterruptedException {
+        CompletionService<Integer> completionService = new ExecutorCompletionService<>(hedgeExecutor);
+        HedgedAttempt primary = new HedgedAttempt(false, eventBody, idempotencyKey);
+        HedgedAttempt hedge = null;
+        Future<Integer> hedgeFuture = null;
+
+        long primaryStart = System.nanoTime();
+        Future<Integer> primaryFuture = completionService.submit(primary);
+        int pending = 1;
+
+        hedger.recordRequest();
+        long hedgeDelay = hedger.getHedgeDelayNanos();
+
+        Integer lastStatusCode = null;
+        IOException lastFailure = null;
+        boolean primaryAnswered = false;
+        try {
+            Future<Integer> completed = null;
+            if (hedgeDelay >= 0) {
+                completed = completionService.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+                if (completed == null && hedger.tryAcquireBudget()) {
+                    LOG.debug("No response within " + hedgeDelay + "ns, hedging request");
+                    sinkCounter.incrementHedgeFiredCount();
+                    hedge = new HedgedAttempt(true, eventBody, idempotencyKey);
+                    hedgeFuture = completionService.submit(hedge);
+                    pending++;
+                }
+            }
+
+            while (pending > 0) {
+                if (completed == null) {
+                    completed = completionService.take();
+                }
+                pending--;
+
+                // failed primaries are recorded too, so slow failures stay in the sample
+                boolean fromPrimary = completed == primaryFuture;
+                if (fromPrimary) {
+                    primaryAnswered = true;
+                    hedger.recordPrimaryLatency(System.nanoTime() - primaryStart);
+                }
+                try {
+                    int httpStatusCode = completed.get();
+
+                    if (httpStatusCode >= 100 && !decisions.shouldRollback(httpStatusCode)) {
+                        if (!fromPrimary) {
+                            sinkCounter.incrementHedgeWonCount();
+                        }
+                        return httpStatusCode;
+                    }
+                    lastStatusCode = httpStatusCode;
+
+                } catch (ExecutionException e) {
+                    lastFailure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+                completed = null;
+            }
+        } finally {
+            // an abandoned primary took at least this long, leaving it out
+            // of the samples would pull the hedge delay below the real latency
+            if (!primaryAnswered) {
+                hedger.recordPrimaryLatency(System.nanoTime() - primaryStart);
+            }
+
+            // completed requests keep their connection for reuse
+            if (!primaryFuture.isDone()) {
+                primary.cancel();
+            }
+            if (hedgeFuture != null && !hedgeFuture.isDone()) {
+                hedge.cancel();
+            }
+        }
+
+        if (lastStatusCode != null) {
+            return lastStatusCode;
+        }
+        throw lastFailure;
     }
 
-    private void parseConfigOverrides(String propertyName, Context context, Map<String, Boolean> override) {
+    /**
+     * One of the requests sent by sendHedged, which can be abandoned from
+     * another thread by closing its connection.
+     */
+    private class HedgedAttempt implements Callable<Integer> {
+
+        private final boolean hedge;
+        private final byte[] eventBody;
+        private final String idempotencyKey;
+
+        private volatile HttpURLConnection connection;
+        private volatile boolean cancelled;
+
+        private HedgedAttempt(boolean hedge, byte[] eventBody, String idempotencyKey) {
+            this.hedge = hedge;
+            this.eventBody = eventBody;
+            this.idempotencyKey = idempotencyKey;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            connection = hedge ? getHedgeConnection(idempotencyKey) : getConnection(idempotencyKey);
+            if (cancelled) {
+                connection.disconnect();
+                throw new InterruptedIOException("Request abandoned");
+            }
+            return sendRequest(connection, eventBody);
+        }
+
+        private void cancel() {
+            cancelled = true;
+            HttpURLConnection abandoned = connection;
+            if (abandoned != null) {
+                abandoned.disconnect();
+            }
+        }
+    }
+
+    private void configureLanes(Context context) {
+        laneHeader = context.getString("laneHeader");
+        String configuredLanes = context.getString("lanes");
+
+        List<String> laneNames = new ArrayList<>();
+        if (laneHeader != null && configuredLanes != null) {
+            for (String laneName : configuredLanes.trim().split("[\\s,]+")) {
+                if (!laneName.isEmpty() && !laneNames.contains(laneName)) {
+                    laneNames.add(laneName);
+                }
+            }
+        }
+
+        if (laneNames.isEmpty()) {
+            laneHeader = null;
+            laneNames.add(DEFAULT_LANE);
+        } else {
+            LOG.info("Using lane header : " + laneHeader);
+        }
+
+        lanes = new ArrayList<>();
+        lanesByName = new HashMap<>();
+        for (String laneName : laneNames) {
+            int laneBatchSize = laneHeader == null
+                    ? batchSize
+                    : context.getInteger("lanes." + laneName + ".batchSize", batchSize);
+            if (laneBatchSize <= 0) {
+                throw new IllegalArgumentException("Lane batch size must be a non-zero and positive");
+            }
+            LOG.info(String.format("Using lane %s with batch size : %d", laneName, laneBatchSize));
+
+            PriorityLane lane = new PriorityLane(laneName, laneBatchSize,
+                    new HttpSinkLaneCounter(getName() + "." + laneName));
+            lanes.add(lane);
+            lanesByName.put(laneName, lane);
+        }
+    }
+
+    private void configureTracing(Context context) {
+        String configuredSampleRate = context.getString("traceSampleRate");
+        double traceSampleRate = configuredSampleRate == null ? 0 : Double.parseDouble(configuredSampleRate);
+        if (traceSampleRate < 0 || traceSampleRate > 1) {
+            throw new IllegalArgumentException("Trace sample rate must be between 0 and 1");
+        }
+        LOG.info("Using trace sample rate : " + traceSampleRate);
+
+        String traceFile = context.getString("traceFile");
+        String traceFileMaxSize = context.getString("traceFileMaxSize", DEFAULT_TRACE_FILE_MAX_SIZE);
+        int traceFileMaxBackups = context.getInteger("traceFileMaxBackups", DEFAULT_TRACE_FILE_MAX_BACKUPS);
+        if (traceFile != null) {
+            if (traceFileMaxBackups < 0) {
+                throw new IllegalArgumentException("Trace file max backups must be zero or positive");
+            }
+            LOG.info(String.format("Using trace file %s, rolled over at %s keeping %d backups",
+                    traceFile, traceFileMaxSize, traceFileMaxBackups));
+        }
+
+        tracer = new DeliveryTracer(getName(), traceSampleRate, traceFile, traceFileMaxSize, traceFileMaxBackups);
+    }
+
+    private void configureIdleStrategy(Context context) {
+        String configuredStrategy = context.getString("idleStrategy", "backoff");
+        if (configuredStrategy == null || "backoff".equalsIgnoreCase(configuredStrategy)) {
+            idleStrategy = null;
+            return;
+        } else if (!"adaptive".equalsIgnoreCase(configuredStrategy)) {
+            throw new IllegalArgumentException("Idle strategy must be one of backoff or adaptive");
+        }
+
+        int idleSpins = context.getInteger("idleSpins", DEFAULT_IDLE_SPINS);
+        int idleYields = context.getInteger("idleYields", DEFAULT_IDLE_YIELDS);
+        if (idleSpins < 0 || idleYields < 0) {
+            throw new IllegalArgumentException("Idle spins and yields must be zero or positive");
+        }
+
+        int idleMaxLatency = context.getInteger("idleMaxLatency", DEFAULT_IDLE_MAX_LATENCY);
+        if (idleMaxLatency <= 0) {
+            throw new IllegalArgumentException("Idle maximum latency must be a non-zero and positive");
+        }
+
+        int idleTimeout = context.getInteger("idleTimeout", DEFAULT_IDLE_TIMEOUT);
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("Idle timeout must be a non-zero and positive");
+        }
+        LOG.info(String.format("Using adaptive idle strategy with %d spins, %d yields, maximum latency %d and timeout %d",
+                idleSpins, idleYields, idleMaxLatency, idleTimeout));
+
+        idleStrategy = new IdleStrategy(idleSpins, idleYields, idleMaxLatency);
+        idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+    }
+
+    private void configureRequestSize(Context context) {
+        oversizeConfigured = context.getString("maxRequestBytes") != null
+                || context.getString("oversizeAction") != null;
+
+        maxRequestBytes = context.getLong("maxRequestBytes", DEFAULT_MAX_REQUEST_BYTES);
+        if (maxRequestBytes < 0) {
+            throw new IllegalArgumentException("Max request bytes must be zero or positive");
+        }
+        LOG.info("Using max request bytes : " + maxRequestBytes);
+
+        String configuredAction = context.getString("oversizeAction", "chunked");
+        if (configuredAction == null || "chunked".equalsIgnoreCase(configuredAction)) {
+            oversizeAction = OversizeAction.CHUNKED;
+        } else if ("drop".equalsIgnoreCase(configuredAction)) {
+            oversizeAction = OversizeAction.DROP;
+        } else if ("deadLetter".equalsIgnoreCase(configuredAction)) {
+            oversizeAction = OversizeAction.DEAD_LETTER;
+        } else {
+            throw new IllegalArgumentException("Oversize action must be one of drop, deadLetter or chunked");
+        }
+        LOG.info("Using oversize action : " + oversizeAction);
+
+        String configuredDirectory = context.getString("deadLetterDirectory");
+        if (oversizeAction == OversizeAction.DEAD_LETTER && configuredDirectory == null) {
+            throw new IllegalArgumentException("Dead letter directory must be set for the deadLetter oversize action");
+        }
+        if (oversizeAction != OversizeAction.DROP && configuredDirectory != null) {
+            deadLetterDirectory = new File(configuredDirectory);
+            if (!deadLetterDirectory.isDirectory() && !deadLetterDirectory.mkdirs()) {
+                throw new IllegalArgumentException("Dead letter directory cannot be created : " + configuredDirectory);
+            }
+            LOG.info("Using dead letter directory : " + deadLetterDirectory);
+        }
+    }
+
+    private void configureIdempotency(Context context) {
+        idempotencyHeader = context.getString("idempotencyHeader");
+        if (idempotencyHeader != null) {
+            LOG.info("Using idempotency header : " + idempotencyHeader);
+        }
+
+        idempotencyEventHeader = context.getString("idempotencyEventHeader");
+        if (idempotencyEventHeader != null) {
+            LOG.info("Using idempotency event header : " + idempotencyEventHeader);
+        }
+
+        acknowledgedKeysSize = context.getInteger("acknowledgedKeysSize", DEFAULT_ACKNOWLEDGED_KEYS_SIZE);
+        if (acknowledgedKeysSize < 0) {
+            throw new IllegalArgumentException("Acknowledged keys size must be zero or positive");
+        }
+        if (acknowledgedKeysSize > 0 && idempotencyEventHeader == null) {
+            throw new IllegalArgumentException("Idempotency event header must be set to remember acknowledged keys");
+        }
+        LOG.info("Using acknowledged keys size : " + acknowledgedKeysSize);
+        acknowledgedKeys = acknowledgedKeysSize == 0 ? null : new AcknowledgedKeys(acknowledgedKeysSize);
+    }
+
+    private void configureHedging(Context context) {
+        String configuredHedgeEndpoint = context.getString("hedgeEndpoint", "");
+        LOG.info("Read hedge endpoint URL from configuration : " + configuredHedgeEndpoint);
+
+        try {
+            hedgeEndpointUrl = new URL(configuredHedgeEndpoint);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Hedge endpoint URL invalid", e);
+        }
+
+        String configuredPercentile = context.getString("hedgePercentile");
+        double hedgePercentile = configuredPercentile == null
+                ? DEFAULT_HEDGE_PERCENTILE
+                : Double.parseDouble(configuredPercentile);
+        if (hedgePercentile <= 0 || hedgePercentile > 100) {
+            throw new IllegalArgumentException("Hedge percentile must be greater than 0 and at most 100");
+        }
+        LOG.info("Using hedge percentile : " + hedgePercentile);
+
+        int hedgeMinDelay = context.getInteger("hedgeMinDelay", DEFAULT_HEDGE_MIN_DELAY);
+        if (hedgeMinDelay < 0) {
+            throw new IllegalArgumentException("Hedge minimum delay must be zero or positive");
+        }
+        LOG.info("Using hedge minimum delay : " + hedgeMinDelay);
+
+        String configuredBudget = context.getString("hedgeBudget");
+        double hedgeBudget = configuredBudget == null
+                ? DEFAULT_HEDGE_BUDGET
+                : Double.parseDouble(configuredBudget);
+        if (hedgeBudget <= 0 || hedgeBudget > 100) {
+            throw new IllegalArgumentException("Hedge budget must be greater than 0 and at most 100");
+        }
+        LOG.info("Using hedge budget : " + hedgeBudget);
+
+        hedger = new RequestHedger(hedgePercentile, hedgeMinDelay, hedgeBudget);
+    }
+
+    private Map<String, Boolean> parseConfigOverrides(String propertyName, Context context) {
+        Map<String, Boolean> override = new HashMap<>();
         ImmutableMap<String, String> config = context.getSubProperties(propertyName + ".");
 
         if (config != null) {
@@ -256,33 +1281,51 @@ public class HttpSink extends AbstractSink implements Configurable {
                 }
             });
         }
+        return override;
     }
 
-    private boolean findOverrideValue(String statusCode, HashMap<String, Boolean> overrides, boolean defaultValue) {
-        Boolean overrideValue = overrides.get(statusCode);
-        if (overrideValue == null) {
-            overrideValue = overrides.get(statusCode.substring(0, 1) + "XX");
-            if (overrideValue == null) {
-                overrideValue = defaultValue;
-            }
-        }
-        return overrideValue;
+    HttpURLConnection getConnection(String idempotencyKey) throws IOException {
+        return getConnection(endpointUrl, 0, idempotencyKey);
+    }
+
+    HttpURLConnection getHedgeConnection(String idempotencyKey) throws IOException {
+        return getConnection(hedgeEndpointUrl, 0, idempotencyKey);
     }
 
-    HttpURLConnection getConnection() throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) endpointUrl.openConnection();
+    HttpURLConnection getChunkedConnection(String idempotencyKey) throws IOException {
+        return getConnection(endpointUrl, CHUNK_SIZE, idempotencyKey);
+    }
+
+    private HttpURLConnection getConnection(URL url, int chunkSize, String idempotencyKey) throws IOException {
+        HttpURLConnection connection = transport.openConnection(url, connectTimeout, requestTimeout);
+        if (chunkSize > 0) {
+            connection.setChunkedStreamingMode(chunkSize);
+        }
         connection.setRequestMethod("POST");
         connection.setRequestProperty("Content-Type", contentTypeHeader);
         connection.setRequestProperty("Accept", acceptHeader);
-        connection.setConnectTimeout(connectTimeout);
-        connection.setReadTimeout(requestTimeout);
+        if (idempotencyKey != null) {
+            connection.setRequestProperty(idempotencyHeader, idempotencyKey);
+        }
         connection.setDoOutput(true);
         connection.setDoInput(true);
         connection.connect();
         return connection;
     }
 
-    void setSinkCounter(SinkCounter sinkCounter) {
+    HttpSinkStats getStats() {
+        return stats;
+    }
+
+    RequestHedger getHedger() {
+        return hedger;
+    }
+
+    RateLimitedLog getOversizeRollbackLog() {
+        return oversizeRollbackLog;
+    }
+
+    void setSinkCounter(HttpSinkCounter sinkCounter) {
         this.sinkCounter = sinkCounter;
     }
 }
@@ -0,0 +1,89 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.flume.instrumentation.SinkCounter;
+
+/**
+ * Sink counters for HttpSink, registered with JMX when the sink starts.
+ */
+public class HttpSinkCounter extends SinkCounter implements HttpSinkCounterMBean {
+
+    private static final String COUNTER_HEDGE_FIRED = "sink.hedge.fired";
+    private static final String COUNTER_HEDGE_WON = "sink.hedge.won";
+    private static final String COUNTER_IDLE = "sink.idle";
+    private static final String COUNTER_DELIVERY_BACKOFF = "sink.delivery.backoff";
+    private static final String COUNTER_OVERSIZE_EVENT = "sink.oversize.event";
+    private static final String COUNTER_REQUEST_SPLIT = "sink.request.split";
+    private static final String COUNTER_DUPLICATE_SKIPPED = "sink.duplicate.skipped";
+
+    private static final String[] ATTRIBUTES = {
+        COUNTER_HEDGE_FIRED, COUNTER_HEDGE_WON, COUNTER_IDLE, COUNTER_DELIVERY_BACKOFF,
+        COUNTER_OVERSIZE_EVENT, COUNTER_REQUEST_SPLIT, COUNTER_DUPLICATE_SKIPPED
+    };
+
+    public HttpSinkCounter(String name) {
+        super(name, ATTRIBUTES);
+    }
+
+    public long incrementHedgeFiredCount() {
+        return increment(COUNTER_HEDGE_FIRED);
+    }
+
+    @Override
+    public long getHedgeFiredCount() {
+        return get(COUNTER_HEDGE_FIRED);
+    }
+
+    public long incrementHedgeWonCount() {
+        return increment(COUNTER_HEDGE_WON);
+    }
+
+    @Override
+    public long getHedgeWonCount() {
+        return get(COUNTER_HEDGE_WON);
+    }
+
+    public long incrementIdleCount() {
+        return increment(COUNTER_IDLE);
+    }
+
+    @Override
+    public long getIdleCount() {
+        return get(COUNTER_IDLE);
+    }
+
+    public long incrementDeliveryBackoffCount() {
+        return increment(COUNTER_DELIVERY_BACKOFF);
+    }
+
+    @Override
+    public long getDeliveryBackoffCount() {
+        return get(COUNTER_DELIVERY_BACKOFF);
+    }
+
+    public long incrementOversizeEventCount() {
+        return increment(COUNTER_OVERSIZE_EVENT);
+    }
+
+    @Override
+    public long getOversizeEventCount() {
+        return get(COUNTER_OVERSIZE_EVENT);
+    }
+
+    public long incrementRequestSplitCount() {
+        return increment(COUNTER_REQUEST_SPLIT);
+    }
+
+    @Override
+    public long getRequestSplitCount() {
+        return get(COUNTER_REQUEST_SPLIT);
+    }
+
+    public long incrementDuplicateSkippedCount() {
+        return increment(COUNTER_DUPLICATE_SKIPPED);
+    }
+
+    @Override
+    public long getDuplicateSkippedCount() {
+        return get(COUNTER_DUPLICATE_SKIPPED);
+    }
+}
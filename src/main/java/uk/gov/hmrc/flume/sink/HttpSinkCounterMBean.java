@@ -0,0 +1,24 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.flume.instrumentation.SinkCounterMBean;
+
+/**
+ * JMX view of the HttpSink metrics, adding HTTP specific counters to the
+ * standard sink counters.
+ */
+public interface HttpSinkCounterMBean extends SinkCounterMBean {
+
+    long getHedgeFiredCount();
+
+    long getHedgeWonCount();
+
+    long getIdleCount();
+
+    long getDeliveryBackoffCount();
+
+    long getOversizeEventCount();
+
+    long getRequestSplitCount();
+
+    long getDuplicateSkippedCount();
+}
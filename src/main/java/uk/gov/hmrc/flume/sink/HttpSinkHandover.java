@@ -0,0 +1,80 @@
+package uk.gov.hmrc.flume.sink;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the response time history of a stopped HttpSink over to the next
+ * sink started with the same name and endpoint.
+ *
+ * Flume applies a change to the agent configuration by stopping every
+ * component and then starting new instances, so without this each reload
+ * would start latency aware sink selection and hedging from nothing. The
+ * state of a stopped sink is kept for at most the handover timeout, and is
+ * taken over at most once. It is discarded if the new sink sends to another
+ * endpoint, since the old response times do not describe the new one. The sink's transport is handed over in the same
+ * way by the HttpTransportRegistry.
+ */
+class HttpSinkHandover {
+
+    static final long DEFAULT_TIMEOUT = 60000;
+
+    static final HttpSinkHandover SHARED = new HttpSinkHandover(DEFAULT_TIMEOUT);
+
+    private final long timeoutNanos;
+    private final Map<String, Retained> retained = new HashMap<>();
+
+    HttpSinkHandover(long timeoutMillis) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    synchronized void retain(String sinkName, String endpoint, HttpSinkStats stats, RequestHedger hedger) {
+        removeExpired();
+        retained.put(sinkName, new Retained(endpoint, stats, hedger, System.nanoTime()));
+    }
+
+    /**
+     * Returns the state retained for the named sink, or null if there is none,
+     * it has expired, or it was left by a sink sending to another endpoint.
+     */
+    synchronized Retained take(String sinkName, String endpoint) {
+        removeExpired();
+        Retained taken = retained.remove(sinkName);
+        return taken == null || !taken.endpoint.equals(endpoint) ? null : taken;
+    }
+
+    private void removeExpired() {
+        long now = System.nanoTime();
+        Iterator<Retained> iterator = retained.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().stoppedAt > timeoutNanos) {
+                iterator.remove();
+            }
+        }
+    }
+
+    static class Retained {
+
+        private final String endpoint;
+        private final HttpSinkStats stats;
+        private final RequestHedger hedger;
+        private final long stoppedAt;
+
+        private Retained(String endpoint, HttpSinkStats stats, RequestHedger hedger, long stoppedAt) {
+            this.endpoint = endpoint;
+            this.stats = stats;
+            this.hedger = hedger;
+            this.stoppedAt = stoppedAt;
+        }
+
+        HttpSinkStats getStats() {
+            return stats;
+        }
+
+        RequestHedger getHedger() {
+            return hedger;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+import uk.gov.hmrc.flume.instrumentation.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters for one HttpSink priority lane, registered with JMX when the sink
+ * starts. Depth is the number of events the lane held in the last
+ * transaction, and latencies are request times in milliseconds since the sink
+ * started.
+ */
+public class HttpSinkLaneCounter extends MonitoredCounterGroup implements HttpSinkLaneCounterMBean {
+
+    private static final String COUNTER_EVENTS = "lane.event.count";
+    private static final String COUNTER_REQUESTS = "lane.request.count";
+    private static final String GAUGE_DEPTH = "lane.depth";
+
+    private static final String[] ATTRIBUTES = {
+        COUNTER_EVENTS, COUNTER_REQUESTS, GAUGE_DEPTH
+    };
+
+    private final Histogram latency = new Histogram();
+
+    public HttpSinkLaneCounter(String name) {
+        super(Type.OTHER, name, ATTRIBUTES);
+    }
+
+    public void setDepth(long depth) {
+        set(GAUGE_DEPTH, depth);
+    }
+
+    public void recordRequest(int events, long latencyNanos) {
+        addAndGet(COUNTER_EVENTS, events);
+        increment(COUNTER_REQUESTS);
+        latency.record(latencyNanos);
+    }
+
+    @Override
+    public long getEventCount() {
+        return get(COUNTER_EVENTS);
+    }
+
+    @Override
+    public long getRequestCount() {
+        return get(COUNTER_REQUESTS);
+    }
+
+    @Override
+    public long getDepth() {
+        return get(GAUGE_DEPTH);
+    }
+
+    @Override
+    public long getLatencyMedian() {
+        return TimeUnit.NANOSECONDS.toMillis(latency.percentile(50));
+    }
+
+    @Override
+    public long getLatency99thPercentile() {
+        return TimeUnit.NANOSECONDS.toMillis(latency.percentile(99));
+    }
+}
@@ -0,0 +1,23 @@
+package uk.gov.hmrc.flume.sink;
+
+/**
+ * JMX view of the metrics for one HttpSink priority lane.
+ */
+public interface HttpSinkLaneCounterMBean {
+
+    long getEventCount();
+
+    long getRequestCount();
+
+    long getDepth();
+
+    long getLatencyMedian();
+
+    long getLatency99thPercentile();
+
+    long getStartTime();
+
+    long getStopTime();
+
+    String getType();
+}
@@ -0,0 +1,79 @@
+package uk.gov.hmrc.flume.sink;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live request latency and error rate of an HttpSink, kept as exponentially
+ * weighted moving averages.
+ *
+ * A failed request is recorded as taking at least the failure latency, which
+ * the sink sets to its request timeout, so an endpoint that fails fast, such
+ * as one refusing connections, does not look faster than a healthy one.
+ *
+ * Only the sink's runner thread records requests, so plain volatile fields are
+ * enough for other threads to read a recent value without locking.
+ */
+class HttpSinkStats {
+
+    static final double DEFAULT_ALPHA = 0.2;
+    static final long DEFAULT_FAILURE_LATENCY = TimeUnit.MILLISECONDS.toNanos(5000);
+
+    private final double alpha;
+    private volatile long failureLatencyNanos = DEFAULT_FAILURE_LATENCY;
+
+    private volatile double latencyEwma;
+    private volatile double errorEwma;
+    private volatile long requestCount;
+
+    HttpSinkStats() {
+        this(DEFAULT_ALPHA);
+    }
+
+    HttpSinkStats(double alpha) {
+        this.alpha = alpha;
+    }
+
+    void recordSuccess(long latencyNanos) {
+        record(latencyNanos, 0.0);
+    }
+
+    void recordFailure(long latencyNanos) {
+        record(Math.max(latencyNanos, failureLatencyNanos), 1.0);
+    }
+
+    void setFailureLatency(long failureLatencyNanos) {
+        this.failureLatencyNanos = failureLatencyNanos;
+    }
+
+    private void record(long latencyNanos, double error) {
+        if (requestCount == 0) {
+            latencyEwma = latencyNanos;
+            errorEwma = error;
+        } else {
+            latencyEwma += alpha * (latencyNanos - latencyEwma);
+            errorEwma += alpha * (error - errorEwma);
+        }
+        requestCount++;
+    }
+
+    double getLatencyEwma() {
+        return latencyEwma;
+    }
+
+    double getErrorRate() {
+        return errorEwma;
+    }
+
+    long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Lower is better. The average latency, in which failures count as at
+     * least the failure latency, is further inflated by the recent error
+     * rate.
+     */
+    double score(double errorPenalty) {
+        return latencyEwma * (1.0 + errorPenalty * errorEwma);
+    }
+}
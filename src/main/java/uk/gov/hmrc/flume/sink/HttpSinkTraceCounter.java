@@ -0,0 +1,127 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+import uk.gov.hmrc.flume.instrumentation.Histogram;
+import uk.gov.hmrc.flume.sink.DeliveryTrace.Stage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stage timings of the sampled transactions of one HttpSink, registered with
+ * JMX when the sink starts. Times are in microseconds since the sink started.
+ */
+public class HttpSinkTraceCounter extends MonitoredCounterGroup implements HttpSinkTraceCounterMBean {
+
+    private static final String COUNTER_SAMPLED = "trace.sampled.count";
+
+    private static final String[] ATTRIBUTES = {
+        COUNTER_SAMPLED
+    };
+
+    private final Histogram[] stageTimes = new Histogram[Stage.values().length];
+    private final Histogram totalTime = new Histogram();
+
+    public HttpSinkTraceCounter(String name) {
+        super(Type.OTHER, name, ATTRIBUTES);
+        for (int i = 0; i < stageTimes.length; i++) {
+            stageTimes[i] = new Histogram();
+        }
+    }
+
+    void record(DeliveryTrace trace, long totalNanos) {
+        increment(COUNTER_SAMPLED);
+        for (Stage stage : Stage.values()) {
+            stageTimes[stage.ordinal()].record(trace.getStageNanos(stage));
+        }
+        totalTime.record(totalNanos);
+    }
+
+    @Override
+    public long getSampledCount() {
+        return get(COUNTER_SAMPLED);
+    }
+
+    @Override
+    public long getTakeTimeMedian() {
+        return percentile(Stage.TAKE, 50);
+    }
+
+    @Override
+    public long getTakeTime99thPercentile() {
+        return percentile(Stage.TAKE, 99);
+    }
+
+    @Override
+    public long getIdleTimeMedian() {
+        return percentile(Stage.IDLE, 50);
+    }
+
+    @Override
+    public long getIdleTime99thPercentile() {
+        return percentile(Stage.IDLE, 99);
+    }
+
+    @Override
+    public long getEncodeTimeMedian() {
+        return percentile(Stage.ENCODE, 50);
+    }
+
+    @Override
+    public long getEncodeTime99thPercentile() {
+        return percentile(Stage.ENCODE, 99);
+    }
+
+    @Override
+    public long getConnectTimeMedian() {
+        return percentile(Stage.CONNECT, 50);
+    }
+
+    @Override
+    public long getConnectTime99thPercentile() {
+        return percentile(Stage.CONNECT, 99);
+    }
+
+    @Override
+    public long getWriteTimeMedian() {
+        return percentile(Stage.WRITE, 50);
+    }
+
+    @Override
+    public long getWriteTime99thPercentile() {
+        return percentile(Stage.WRITE, 99);
+    }
+
+    @Override
+    public long getResponseTimeMedian() {
+        return percentile(Stage.RESPONSE, 50);
+    }
+
+    @Override
+    public long getResponseTime99thPercentile() {
+        return percentile(Stage.RESPONSE, 99);
+    }
+
+    @Override
+    public long getCommitTimeMedian() {
+        return percentile(Stage.COMMIT, 50);
+    }
+
+    @Override
+    public long getCommitTime99thPercentile() {
+        return percentile(Stage.COMMIT, 99);
+    }
+
+    @Override
+    public long getTotalTimeMedian() {
+        return TimeUnit.NANOSECONDS.toMicros(totalTime.percentile(50));
+    }
+
+    @Override
+    public long getTotalTime99thPercentile() {
+        return TimeUnit.NANOSECONDS.toMicros(totalTime.percentile(99));
+    }
+
+    private long percentile(Stage stage, double percentile) {
+        return TimeUnit.NANOSECONDS.toMicros(stageTimes[stage.ordinal()].percentile(percentile));
+    }
+}
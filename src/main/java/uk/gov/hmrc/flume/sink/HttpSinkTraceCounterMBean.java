@@ -0,0 +1,47 @@
+package uk.gov.hmrc.flume.sink;
+
+/**
+ * JMX view of the sampled delivery stage timings for one HttpSink.
+ */
+public interface HttpSinkTraceCounterMBean {
+
+    long getSampledCount();
+
+    long getTakeTimeMedian();
+
+    long getTakeTime99thPercentile();
+
+    long getIdleTimeMedian();
+
+    long getIdleTime99thPercentile();
+
+    long getEncodeTimeMedian();
+
+    long getEncodeTime99thPercentile();
+
+    long getConnectTimeMedian();
+
+    long getConnectTime99thPercentile();
+
+    long getWriteTimeMedian();
+
+    long getWriteTime99thPercentile();
+
+    long getResponseTimeMedian();
+
+    long getResponseTime99thPercentile();
+
+    long getCommitTimeMedian();
+
+    long getCommitTime99thPercentile();
+
+    long getTotalTimeMedian();
+
+    long getTotalTime99thPercentile();
+
+    long getStartTime();
+
+    long getStopTime();
+
+    String getType();
+}
@@ -0,0 +1,229 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.log4j.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The connection handling used by an HttpSink to reach one host and port.
+ *
+ * Holds the DNS refresher for that destination, and the TLS context when
+ * custom session settings are given. Sockets themselves are pooled by the JVM
+ * keep-alive cache, per destination and, for HTTPS, per socket factory. With
+ * the default session settings the JVM default socket factory is used, so
+ * HTTPS sockets are shared with every other connection to the destination,
+ * as plain HTTP sockets are. With custom session settings they are only
+ * shared by the sinks using this transport. A transport is either owned by a
+ * single sink, or shared between sinks, and is normally kept in the
+ * {@link HttpTransportRegistry}.
+ */
+class HttpTransport {
+
+    private static final Logger LOG = Logger.getLogger(HttpTransport.class);
+
+    private final String key;
+    private final URL endpointUrl;
+    private final int dnsRefreshInterval;
+    private final int sslSessionCacheSize;
+    private final int sslSessionTimeout;
+
+    private SSLSocketFactory sslSocketFactory;
+    private DnsRefresher dnsRefresher;
+    private ExecutorService prewarmExecutor;
+    private boolean prewarmed;
+
+    HttpTransport(URL endpointUrl, int dnsRefreshInterval, int sslSessionCacheSize, int sslSessionTimeout) {
+        this.key = key(endpointUrl, dnsRefreshInterval, sslSessionCacheSize, sslSessionTimeout);
+        this.endpointUrl = endpointUrl;
+        this.dnsRefreshInterval = dnsRefreshInterval;
+        this.sslSessionCacheSize = sslSessionCacheSize;
+        this.sslSessionTimeout = sslSessionTimeout;
+    }
+
+    /**
+     * Transports with the same key reach the same destination with the same
+     * settings, and so can be shared.
+     */
+    static String key(URL endpointUrl, int dnsRefreshInterval, int sslSessionCacheSize, int sslSessionTimeout) {
+        return String.format("%s://%s:%d dns=%d sslCache=%d sslTimeout=%d",
+                endpointUrl.getProtocol().toLowerCase(), endpointUrl.getHost().toLowerCase(),
+                endpointUrl.getPort() == -1 ? endpointUrl.getDefaultPort() : endpointUrl.getPort(),
+                dnsRefreshInterval, sslSessionCacheSize, sslSessionTimeout);
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    void start() {
+        if ("https".equalsIgnoreCase(endpointUrl.getProtocol()) && (sslSessionCacheSize > 0 || sslSessionTimeout > 0)) {
+            sslSocketFactory = createSslSocketFactory();
+        }
+
+        if (dnsRefreshInterval > 0) {
+            dnsRefresher = new DnsRefresher(endpointUrl.getHost(), dnsRefreshInterval);
+            dnsRefresher.start();
+        }
+    }
+
+    synchronized void stop() {
+        if (prewarmExecutor != null) {
+            prewarmExecutor.shutdownNow();
+            prewarmExecutor = null;
+        }
+        if (dnsRefresher != null) {
+            dnsRefresher.stop();
+            dnsRefresher = null;
+        }
+    }
+
+    HttpURLConnection openConnection(URL url, int connectTimeout, int requestTimeout) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (sslSocketFactory != null && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(requestTimeout);
+        return connection;
+    }
+
+    /**
+     * Opens the given number of connections in parallel on background
+     * threads and completes a HEAD request to the url on each, so that the
+     * DNS lookup, TCP connect and TLS handshake are paid before the first
+     * event is sent. Returns straight away, so starting the sink never waits
+     * for the endpoint, and each connection gives up after the connect and
+     * request timeouts. Any response, including an error status, returns the
+     * socket to the JVM keep-alive cache (which holds at most
+     * http.maxConnections sockets per destination) ready for reuse. Only the
+     * first call opens connections, so a transport shared with another sink,
+     * or taken over after a reload, is not prewarmed again.
+     */
+    synchronized void prewarm(URL url, int count, int connectTimeout, int requestTimeout) {
+        if (prewarmed) {
+            return;
+        }
+        prewarmed = true;
+
+        prewarmExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "http-sink-prewarm-" + url.getHost());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger remaining = new AtomicInteger(count);
+        AtomicInteger opened = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            prewarmExecutor.execute(() -> {
+                if (prewarmConnection(url, connectTimeout, requestTimeout)) {
+                    opened.incrementAndGet();
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    LOG.info(String.format("Prewarmed %d of %d connections to %s", opened.get(), count, url));
+                }
+            });
+        }
+    }
+
+    private boolean prewarmConnection(URL url, int connectTimeout, int requestTimeout) {
+        HttpURLConnection connection = null;
+        try {
+            connection = openConnection(url, connectTimeout, requestTimeout);
+            connection.setRequestMethod("HEAD");
+            int httpStatusCode = connection.getResponseCode();
+            InputStream responseStream = httpStatusCode >= 400
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+            if (responseStream != null) {
+                responseStream.close();
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Unable to prewarm connection to " + url, e);
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Builds one SSLContext for the lifetime of the transport, with its own
+     * client session cache settings, and the same key and trust material as
+     * the JVM default context. Only used when a session setting is given, as
+     * the JVM default context already caches sessions for every connection.
+     * Falls back to the JVM default socket factory if the context cannot be
+     * created.
+     */
+    private SSLSocketFactory createSslSocketFactory() {
+        try {
+            TrustManagerFactory trustManagerFactory =
+                    TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init((KeyStore) null);
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(defaultKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            if (sslSessionCacheSize > 0) {
+                sessionContext.setSessionCacheSize(sslSessionCacheSize);
+            }
+            if (sslSessionTimeout > 0) {
+                sessionContext.setSessionTimeout(sslSessionTimeout);
+            }
+            return sslContext.getSocketFactory();
+        } catch (GeneralSecurityException | IOException e) {
+            LOG.warn("Unable to create SSL context, using the JVM default", e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the client key store named by the javax.net.ssl.keyStore system
+     * properties, as the JVM default context does, so that client
+     * certificates still apply. Returns null if no key store is configured.
+     */
+    private static KeyManager[] defaultKeyManagers() throws GeneralSecurityException, IOException {
+        String keyStorePath = System.getProperty("javax.net.ssl.keyStore");
+        if (keyStorePath == null || keyStorePath.isEmpty()) {
+            return null;
+        }
+
+        String keyStoreType = System.getProperty("javax.net.ssl.keyStoreType", KeyStore.getDefaultType());
+        String keyStorePassword = System.getProperty("javax.net.ssl.keyStorePassword");
+        char[] password = keyStorePassword == null ? null : keyStorePassword.toCharArray();
+
+        KeyStore keyStore = KeyStore.getInstance(keyStoreType);
+        if ("NONE".equals(keyStorePath)) {
+            keyStore.load(null, password);
+        } else {
+            try (InputStream keyStoreStream = new FileInputStream(keyStorePath)) {
+                keyStore.load(keyStoreStream, password);
+            }
+        }
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+        return keyManagerFactory.getKeyManagers();
+    }
+
+    SSLSocketFactory getSslSocketFactory() {
+        return sslSocketFactory;
+    }
+}
@@ -0,0 +1,132 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.log4j.Logger;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reference counted registry of the transports used by the HttpSink instances
+ * in one JVM.
+ *
+ * Sinks that opt in with sharedClient = true and use the same destination and
+ * transport settings share a single transport, and with it one TLS session
+ * cache and one DNS refresher. Other sinks register their transport under
+ * their own name, so it is never shared. The transport is started by its
+ * first user, and stopped once its last user has released it and it has not
+ * been acquired again within the linger time. Flume applies a configuration
+ * change by stopping every sink and then starting new instances, so this lets
+ * a new sink with the same name and settings take over the transport rather
+ * than starting cold.
+ */
+class HttpTransportRegistry {
+
+    private static final Logger LOG = Logger.getLogger(HttpTransportRegistry.class);
+
+    static final HttpTransportRegistry SHARED = new HttpTransportRegistry(HttpSinkHandover.DEFAULT_TIMEOUT);
+
+    private final long lingerMillis;
+    private final Map<String, SharedTransport> transports = new HashMap<>();
+    private ScheduledExecutorService reaper;
+
+    HttpTransportRegistry() {
+        this(0);
+    }
+
+    HttpTransportRegistry(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Acquires the transport for the destination and settings, owned by the
+     * named sink, or shared between sinks if owner is null.
+     */
+    synchronized HttpTransport acquire(String owner, URL endpointUrl, int dnsRefreshInterval,
+                                       int sslSessionCacheSize, int sslSessionTimeout) {
+        String key = registryKey(owner,
+                HttpTransport.key(endpointUrl, dnsRefreshInterval, sslSessionCacheSize, sslSessionTimeout));
+
+        SharedTransport shared = transports.get(key);
+        if (shared == null) {
+            HttpTransport transport = new HttpTransport(
+                    endpointUrl, dnsRefreshInterval, sslSessionCacheSize, sslSessionTimeout);
+            transport.start();
+
+            shared = new SharedTransport(transport);
+            transports.put(key, shared);
+            LOG.info("Created transport " + key);
+        } else if (shared.expiry != null) {
+            shared.expiry.cancel(false);
+            shared.expiry = null;
+            LOG.info("Took over released transport " + key);
+        }
+
+        shared.references++;
+        return shared.transport;
+    }
+
+    synchronized void release(String owner, HttpTransport transport) {
+        String key = registryKey(owner, transport.getKey());
+        SharedTransport shared = transports.get(key);
+        if (shared == null || shared.transport != transport || shared.references == 0) {
+            return;
+        }
+
+        shared.references--;
+        if (shared.references > 0) {
+            return;
+        }
+        if (lingerMillis > 0) {
+            shared.expiry = reaper().schedule(() -> expire(key, shared), lingerMillis, TimeUnit.MILLISECONDS);
+        } else {
+            remove(key, shared);
+        }
+    }
+
+    synchronized int size() {
+        return transports.size();
+    }
+
+    private synchronized void expire(String key, SharedTransport shared) {
+        if (shared.references == 0 && transports.get(key) == shared) {
+            remove(key, shared);
+        }
+    }
+
+    private void remove(String key, SharedTransport shared) {
+        transports.remove(key);
+        shared.transport.stop();
+        LOG.info("Stopped transport " + key);
+    }
+
+    private ScheduledExecutorService reaper() {
+        if (reaper == null) {
+            reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "http-sink-transport-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return reaper;
+    }
+
+    private static String registryKey(String owner, String transportKey) {
+        return owner == null ? transportKey : owner + " " + transportKey;
+    }
+
+    private static class SharedTransport {
+
+        private final HttpTransport transport;
+        private int references;
+        private ScheduledFuture<?> expiry;
+
+        private SharedTransport(HttpTransport transport) {
+            this.transport = transport;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package uk.gov.hmrc.flume.sink;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fast non-cryptographic 64 bit keys for events and requests, using the
+ * MurmurHash64A mix over eight bytes at a time.
+ *
+ * The same bytes always give the same key, so an event that is taken again
+ * after a rollback keeps its key. Keys are only meant to tell retries apart
+ * from new data, not to resist deliberate collisions.
+ */
+final class IdempotencyKeys {
+
+    private static final long SEED = 0x9747b28c5bd1e995L;
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    private IdempotencyKeys() {
+    }
+
+    static long hash(byte[] data) {
+        long h = SEED ^ (data.length * M);
+
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int i = 0;
+        for (; i + 8 <= data.length; i += 8) {
+            h = mix(h, buffer.getLong(i));
+        }
+
+        if (i < data.length) {
+            long tail = 0;
+            for (int shift = 0; i < data.length; i++, shift += 8) {
+                tail |= (data[i] & 0xffL) << shift;
+            }
+            h ^= tail;
+            h *= M;
+        }
+        return finish(h);
+    }
+
+    /**
+     * Combines the keys of the events in a request, in order, into the key
+     * of the request.
+     */
+    static long combine(long[] keys, int from, int to) {
+        if (to - from == 1) {
+            return keys[from];
+        }
+
+        long h = SEED ^ ((to - from) * M);
+        for (int i = from; i < to; i++) {
+            h = mix(h, keys[i]);
+        }
+        return finish(h);
+    }
+
+    static String toString(long key) {
+        String hex = Long.toHexString(key);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    private static long mix(long h, long k) {
+        k *= M;
+        k ^= k >>> R;
+        k *= M;
+        h ^= k;
+        return h * M;
+    }
+
+    private static long finish(long h) {
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+}
@@ -0,0 +1,52 @@
+package uk.gov.hmrc.flume.sink;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides how long HttpSink waits between polls of an empty channel.
+ *
+ * The first spins polls follow each other straight away, so an event that
+ * arrives just after the channel emptied is picked up with no delay. The
+ * next yields polls give up the processor between each poll, and after that
+ * the thread parks for a time that doubles from one microsecond up to the
+ * maximum latency, which bounds how long a new event waits once the sink has
+ * been idle for a while.
+ */
+class IdleStrategy {
+
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final int MAX_DOUBLINGS = 40;
+
+    private final int spins;
+    private final int yields;
+    private final long maxParkNanos;
+
+    IdleStrategy(int spins, int yields, long maxLatencyMillis) {
+        this.spins = spins;
+        this.yields = yields;
+        this.maxParkNanos = Math.max(MIN_PARK_NANOS, TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis));
+    }
+
+    /**
+     * Waits before the given poll, counting from zero for the first poll
+     * after the channel was found empty.
+     */
+    void idle(int poll) {
+        if (poll < spins) {
+            return;
+        }
+        if (poll < spins + yields) {
+            Thread.yield();
+            return;
+        }
+        LockSupport.parkNanos(parkNanos(poll - spins - yields));
+    }
+
+    long parkNanos(int parks) {
+        if (parks >= MAX_DOUBLINGS) {
+            return maxParkNanos;
+        }
+        return Math.min(maxParkNanos, MIN_PARK_NANOS << parks);
+    }
+}
@@ -0,0 +1,184 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.flume.Context;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Sink;
+import org.apache.flume.Sink.Status;
+import org.apache.flume.SinkProcessor;
+import org.apache.flume.lifecycle.LifecycleState;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sink processor for groups of HttpSinks that routes each process() call to
+ * the member whose endpoint is currently performing best.
+ *
+ * Each member is scored from the latency and error rate recorded by the sink
+ * itself. With the default p2c selector two members are picked at random and
+ * the better scoring one is used, which spreads load while steering away from
+ * a degraded endpoint. The ewma selector always uses the best scoring member.
+ *
+ * If the chosen sink backs off or fails, the remaining members are tried in
+ * score order, and BACKOFF is only returned once every member has backed off.
+ * A member that has not been chosen for probeInterval is tried first, so that
+ * a recovered endpoint gets a chance to improve its score.
+ *
+ * Configurable options are :
+ * selector - p2c or ewma (default p2c)
+ * errorPenalty - how strongly the recent error rate inflates a member's latency score (default 10)
+ * probeInterval - the maximum time a member goes without being chosen (default 10000ms)
+ *
+ * All members of the group must be HttpSinks.
+ */
+public class LatencyAwareSinkProcessor implements SinkProcessor {
+
+    private static final Logger LOG = Logger.getLogger(LatencyAwareSinkProcessor.class);
+
+    private static final String DEFAULT_SELECTOR = "p2c";
+    private static final double DEFAULT_ERROR_PENALTY = 10.0;
+    private static final long DEFAULT_PROBE_INTERVAL = 10000;
+
+    private List<HttpSink> sinks = new ArrayList<>();
+    private long[] lastSelected;
+    private LifecycleState state = LifecycleState.IDLE;
+
+    private boolean powerOfTwoChoices = true;
+    private double errorPenalty = DEFAULT_ERROR_PENALTY;
+    private long probeInterval = DEFAULT_PROBE_INTERVAL;
+
+    @Override
+    public void configure(Context context) {
+        String selector = context.getString("selector", DEFAULT_SELECTOR);
+        if ("p2c".equalsIgnoreCase(selector)) {
+            powerOfTwoChoices = true;
+        } else if ("ewma".equalsIgnoreCase(selector)) {
+            powerOfTwoChoices = false;
+        } else {
+            throw new IllegalArgumentException("Selector must be one of p2c or ewma");
+        }
+        LOG.info("Using selector : " + selector);
+
+        String configuredPenalty = context.getString("errorPenalty");
+        errorPenalty = configuredPenalty == null ? DEFAULT_ERROR_PENALTY : Double.parseDouble(configuredPenalty);
+        if (errorPenalty < 0) {
+            throw new IllegalArgumentException("Error penalty must be zero or positive");
+        }
+        LOG.info("Using error penalty : " + errorPenalty);
+
+        probeInterval = context.getLong("probeInterval", DEFAULT_PROBE_INTERVAL);
+        if (probeInterval <= 0) {
+            throw new IllegalArgumentException("Probe interval must be a non-zero and positive");
+        }
+        LOG.info("Using probe interval : " + probeInterval);
+    }
+
+    @Override
+    public void setSinks(List<Sink> sinks) {
+        List<HttpSink> httpSinks = new ArrayList<>();
+        for (Sink sink : sinks) {
+            if (!(sink instanceof HttpSink)) {
+                throw new IllegalArgumentException("Sink " + sink.getName() + " is not an HttpSink");
+            }
+            httpSinks.add((HttpSink) sink);
+        }
+        this.sinks = httpSinks;
+        this.lastSelected = new long[httpSinks.size()];
+    }
+
+    @Override
+    public void start() {
+        for (Sink sink : sinks) {
+            sink.start();
+        }
+        state = LifecycleState.START;
+    }
+
+    @Override
+    public void stop() {
+        for (Sink sink : sinks) {
+            sink.stop();
+        }
+        state = LifecycleState.STOP;
+    }
+
+    @Override
+    public LifecycleState getLifecycleState() {
+        return state;
+    }
+
+    @Override
+    public Status process() throws EventDeliveryException {
+        EventDeliveryException lastException = null;
+        int failures = 0;
+
+        for (int index : selectionOrder()) {
+            HttpSink sink = sinks.get(index);
+            lastSelected[index] = System.currentTimeMillis();
+
+            try {
+                if (sink.process() == Status.READY) {
+                    return Status.READY;
+                }
+            } catch (EventDeliveryException e) {
+                lastException = e;
+                failures++;
+                LOG.warn("Sink " + sink.getName() + " failed to process, trying next sink", e);
+            }
+        }
+
+        if (failures > 0 && failures == sinks.size()) {
+            throw new EventDeliveryException("All sinks failed to process", lastException);
+        }
+        return Status.BACKOFF;
+    }
+
+    /**
+     * The order to try members in for one process() call : the selected
+     * member first, then the rest from best to worst score.
+     */
+    List<Integer> selectionOrder() {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < sinks.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble(this::score));
+
+        if (order.size() > 1) {
+            int first = probeCandidate();
+            if (first < 0) {
+                first = powerOfTwoChoices ? powerOfTwoChoices() : order.get(0);
+            }
+            order.remove(Integer.valueOf(first));
+            order.add(0, first);
+        }
+        return order;
+    }
+
+    private int probeCandidate() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < sinks.size(); i++) {
+            if (lastSelected[i] != 0 && now - lastSelected[i] > probeInterval) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int powerOfTwoChoices() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(sinks.size());
+        int second = random.nextInt(sinks.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        return score(first) <= score(second) ? first : second;
+    }
+
+    private double score(int index) {
+        return sinks.get(index).getStats().score(errorPenalty);
+    }
+}
@@ -0,0 +1,64 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.flume.Event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One of the HttpSink priority lanes, holding the events taken for it in the
+ * current transaction. Lanes are sent in priority order, and each request
+ * carries at most batchSize of the lane's events. Each event is held with its
+ * idempotency key, which is zero when keys are not used.
+ */
+class PriorityLane {
+
+    private final String name;
+    private final int batchSize;
+    private final HttpSinkLaneCounter counter;
+    private final List<Event> events = new ArrayList<>();
+    private long[] keys = new long[16];
+
+    PriorityLane(String name, int batchSize, HttpSinkLaneCounter counter) {
+        this.name = name;
+        this.batchSize = batchSize;
+        this.counter = counter;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    HttpSinkLaneCounter getCounter() {
+        return counter;
+    }
+
+    List<Event> getEvents() {
+        return events;
+    }
+
+    void add(Event event, long key) {
+        if (events.size() == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[events.size()] = key;
+        events.add(event);
+    }
+
+    void clear() {
+        events.clear();
+    }
+
+    long[] getKeys() {
+        return keys;
+    }
+
+    boolean isFull() {
+        return events.size() >= batchSize;
+    }
+}
@@ -0,0 +1,95 @@
+package uk.gov.hmrc.flume.sink;
+
+import uk.gov.hmrc.flume.instrumentation.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a request to the primary endpoint should be hedged to the
+ * secondary endpoint.
+ *
+ * The hedge delay is the configured percentile of recent primary response
+ * times, but never less than the configured minimum. A primary abandoned
+ * after its hedge won is recorded with the time it had taken so far, which
+ * understates it but keeps slow primaries in the sample. Response times are
+ * collected in windows of WINDOW_SIZE requests, and the delay is taken from the
+ * last complete window once there is one. No hedges are sent until
+ * MIN_SAMPLES responses have been seen.
+ *
+ * Hedges are limited by a budget, expressed as a percentage of requests. Each
+ * request earns a fraction of a hedge, up to a small burst allowance, and each
+ * hedge sent spends one.
+ *
+ * Only used from the sink's runner thread.
+ */
+class RequestHedger {
+
+    static final int WINDOW_SIZE = 1000;
+    static final int MIN_SAMPLES = 20;
+
+    private static final double MAX_BUDGET_BURST = 10.0;
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final double budgetPerRequest;
+
+    private Histogram recording = new Histogram();
+    private Histogram previous;
+    private double budget;
+
+    RequestHedger(double percentile, long minDelayMillis, double budgetPercent) {
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.budgetPerRequest = budgetPercent / 100.0;
+    }
+
+    /**
+     * Whether the other hedger was configured the same way, in which case
+     * this one can be kept along with its response time history.
+     */
+    boolean hasSameSettings(RequestHedger other) {
+        return percentile == other.percentile
+                && minDelayNanos == other.minDelayNanos
+                && budgetPerRequest == other.budgetPerRequest;
+    }
+
+    void recordRequest() {
+        budget = Math.min(MAX_BUDGET_BURST, budget + budgetPerRequest);
+    }
+
+    void recordPrimaryLatency(long latencyNanos) {
+        recording.record(latencyNanos);
+        if (recording.getCount() >= WINDOW_SIZE) {
+            previous = recording;
+            recording = new Histogram();
+        }
+    }
+
+    /**
+     * Returns the number of primary response times recorded in the current
+     * window.
+     */
+    long getSampleCount() {
+        return recording.getCount();
+    }
+
+    /**
+     * Returns how long to wait for the primary before hedging, or -1 if there
+     * are not yet enough samples to hedge.
+     */
+    long getHedgeDelayNanos() {
+        Histogram window = previous != null ? previous : recording;
+        if (window.getCount() < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(minDelayNanos, window.percentile(percentile));
+    }
+
+    boolean tryAcquireBudget() {
+        if (budget >= 1.0) {
+            budget -= 1.0;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,84 @@
+package uk.gov.hmrc.flume.sink;
+
+import java.util.Map;
+
+/**
+ * Immutable table of how HttpSink handles each HTTP response status code:
+ * whether the transaction is rolled back, whether the sink backs off, and
+ * whether the events count towards the sink metrics.
+ *
+ * The configured overrides are resolved once for every standard status code,
+ * so a lookup is an array read. A single status code override takes
+ * precedence over a group override such as 5XX, which takes precedence over
+ * the default.
+ */
+final class ResponseDecisions {
+
+    private static final int MIN_STATUS_CODE = 100;
+    private static final int MAX_STATUS_CODE = 599;
+
+    private final Map<String, Boolean> rollbackOverrides;
+    private final Map<String, Boolean> backoffOverrides;
+    private final Map<String, Boolean> incrementMetricsOverrides;
+    private final boolean defaultRollback;
+    private final boolean defaultBackoff;
+    private final boolean defaultIncrementMetrics;
+
+    private final boolean[] rollback = new boolean[MAX_STATUS_CODE - MIN_STATUS_CODE + 1];
+    private final boolean[] backoff = new boolean[rollback.length];
+    private final boolean[] incrementMetrics = new boolean[rollback.length];
+
+    ResponseDecisions(Map<String, Boolean> rollbackOverrides, boolean defaultRollback,
+                      Map<String, Boolean> backoffOverrides, boolean defaultBackoff,
+                      Map<String, Boolean> incrementMetricsOverrides, boolean defaultIncrementMetrics) {
+        this.rollbackOverrides = rollbackOverrides;
+        this.backoffOverrides = backoffOverrides;
+        this.incrementMetricsOverrides = incrementMetricsOverrides;
+        this.defaultRollback = defaultRollback;
+        this.defaultBackoff = defaultBackoff;
+        this.defaultIncrementMetrics = defaultIncrementMetrics;
+
+        for (int i = 0; i < rollback.length; i++) {
+            String statusCode = String.valueOf(MIN_STATUS_CODE + i);
+            rollback[i] = find(statusCode, rollbackOverrides, defaultRollback);
+            backoff[i] = find(statusCode, backoffOverrides, defaultBackoff);
+            incrementMetrics[i] = find(statusCode, incrementMetricsOverrides, defaultIncrementMetrics);
+        }
+    }
+
+    boolean shouldRollback(int statusCode) {
+        if (isStandard(statusCode)) {
+            return rollback[statusCode - MIN_STATUS_CODE];
+        }
+        return find(String.valueOf(statusCode), rollbackOverrides, defaultRollback);
+    }
+
+    boolean shouldBackoff(int statusCode) {
+        if (isStandard(statusCode)) {
+            return backoff[statusCode - MIN_STATUS_CODE];
+        }
+        return find(String.valueOf(statusCode), backoffOverrides, defaultBackoff);
+    }
+
+    boolean shouldIncrementMetrics(int statusCode) {
+        if (isStandard(statusCode)) {
+            return incrementMetrics[statusCode - MIN_STATUS_CODE];
+        }
+        return find(String.valueOf(statusCode), incrementMetricsOverrides, defaultIncrementMetrics);
+    }
+
+    private static boolean isStandard(int statusCode) {
+        return statusCode >= MIN_STATUS_CODE && statusCode <= MAX_STATUS_CODE;
+    }
+
+    private static boolean find(String statusCode, Map<String, Boolean> overrides, boolean defaultValue) {
+        Boolean overrideValue = overrides.get(statusCode);
+        if (overrideValue == null) {
+            overrideValue = overrides.get(statusCode.substring(0, 1) + "XX");
+            if (overrideValue == null) {
+                overrideValue = defaultValue;
+            }
+        }
+        return overrideValue;
+    }
+}
@@ -0,0 +1,57 @@
+package uk.gov.hmrc.flume.instrumentation;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void ensureEmptyHistogramReturnsZero() {
+        assert(new Histogram().percentile(99) == 0);
+    }
+
+    @Test
+    public void ensureSmallValuesRecordedExactly() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 4; i++) {
+            histogram.record(i);
+        }
+
+        assert(histogram.getCount() == 4);
+        assert(histogram.percentile(50) == 2);
+        assert(histogram.percentile(100) == 4);
+    }
+
+    @Test
+    public void ensurePercentilesWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        long median = histogram.percentile(50);
+        long p99 = histogram.percentile(99);
+
+        assert(median >= 500000 && median <= 500000 * 1.125);
+        assert(p99 >= 990000 && p99 <= 990000 * 1.125);
+    }
+
+    @Test
+    public void ensureBucketBoundsContainTheirValues() {
+        long[] values = { 0, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = Histogram.index(value);
+            assert(Histogram.upperBound(index) >= value);
+            assert(index == 0 || Histogram.upperBound(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void ensureResetClearsValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(100);
+        histogram.reset();
+
+        assert(histogram.getCount() == 0);
+        assert(histogram.percentile(50) == 0);
+    }
+}
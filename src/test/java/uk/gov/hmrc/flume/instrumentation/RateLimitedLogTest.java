@@ -0,0 +1,84 @@
+package uk.gov.hmrc.flume.instrumentation;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RateLimitedLogTest {
+
+    private final Logger logger = Logger.getLogger(RateLimitedLogTest.class);
+    private final List<LoggingEvent> logged = new ArrayList<>();
+    private final AppenderSkeleton appender = new AppenderSkeleton() {
+        @Override
+        protected void append(LoggingEvent event) {
+            logged.add(event);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+    };
+
+    @Before
+    public void addAppender() {
+        logger.addAppender(appender);
+        logger.setLevel(Level.INFO);
+    }
+
+    @After
+    public void removeAppender() {
+        logger.removeAppender(appender);
+    }
+
+    @Test
+    public void ensureRepeatedMessagesAreSuppressedWithinInterval() {
+        RateLimitedLog log = new RateLimitedLog(logger, 60000);
+
+        for (int i = 0; i < 5; i++) {
+            log.warn("Discarding event");
+        }
+
+        assert(logged.size() == 1);
+        assert(log.getSuppressedCount() == 4);
+    }
+
+    @Test
+    public void ensureSuppressedCountReportedWithNextMessage() throws Exception {
+        RateLimitedLog log = new RateLimitedLog(logger, 200);
+
+        log.warn("Discarding event");
+        log.warn("Discarding event");
+        log.warn("Discarding event");
+        Thread.sleep(250);
+        log.warn("Discarding event");
+
+        assert(logged.size() == 2);
+        assert(logged.get(1).getRenderedMessage().equals("Discarding event (2 similar messages suppressed)"));
+        assert(log.getSuppressedCount() == 0);
+    }
+
+    @Test
+    public void ensureStackTraceOnlyLoggedAtDebug() {
+        Exception e = new Exception("bad input");
+
+        new RateLimitedLog(logger, 60000).warn("Discarding event", e);
+        logger.setLevel(Level.DEBUG);
+        new RateLimitedLog(logger, 60000).warn("Discarding event", e);
+
+        assert(logged.get(0).getThrowableInformation() == null);
+        assert(logged.get(0).getRenderedMessage().contains("bad input"));
+        assert(logged.get(1).getThrowableInformation() != null);
+    }
+}
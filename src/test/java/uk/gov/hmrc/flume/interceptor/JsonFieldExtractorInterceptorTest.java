@@ -4,11 +4,23 @@ import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.event.SimpleEvent;
 import org.apache.flume.interceptor.Interceptor;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableMap;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -17,8 +29,14 @@ public class JsonFieldExtractorInterceptorTest {
     @Mock
     private Context configContext;
 
+    @Before
+    public void whenNoHeaderMappings() {
+        when(configContext.getSubProperties("headers.")).thenReturn(ImmutableMap.<String, String>of());
+    }
+
     @Test
     public void ensureInvalidJsonEventsAreDiscarded() {
+        when(configContext.getString("propertyName")).thenReturn("one");
         Event event = interceptor().intercept(toEvent("{ foo }"));
         assert(event == null);
     }
@@ -65,6 +83,320 @@ public class JsonFieldExtractorInterceptorTest {
         assert(event == null);
     }
 
+    @Test
+    public void ensureEscapedJsonValuesAreUnescaped() {
+        String eventJson = "{ \"one\" : \"a\\\"b\\u00e9\" }";
+
+        when(configContext.getString("propertyName")).thenReturn("one");
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        String newBody = new String(event.getBody(), StandardCharsets.UTF_8);
+
+        assert(newBody.equals("a\"b\u00e9"));
+    }
+
+    @Test
+    public void ensureMultiByteValuesExtractedAsUtf8() {
+        String eventJson = "{ \"one\" : \"\u00e9\u4e2d\" }";
+
+        when(configContext.getString("propertyName")).thenReturn("one");
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        assert(new String(event.getBody(), StandardCharsets.UTF_8).equals("\u00e9\u4e2d"));
+    }
+
+    @Test
+    public void ensureFieldFoundAfterSkippedValues() {
+        String eventJson = "{\"a\":{\"b\":[1,\"}]\",{\"c\":null}]},\"d\":-1.5e3,\"e\":true,"
+                + "\"f\":\"x\\\"y\",\"one\":\"abc\"}";
+
+        when(configContext.getString("propertyName")).thenReturn("one");
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        assert(new String(event.getBody()).equals("abc"));
+    }
+
+    @Test
+    public void ensureMalformedSkippedValuesAreDiscarded() {
+        when(configContext.getString("propertyName")).thenReturn("f");
+
+        assert(interceptor().intercept(toEvent("{\"a\":[1,,}, \"f\":\"x\"}")) == null);
+        assert(interceptor().intercept(toEvent("{\"a\":-,\"f\":\"x\"}")) == null);
+    }
+
+    @Test
+    public void ensureEscapedFieldNamesMatched() {
+        String eventJson = "{ \"o\\u006ee\" : \"abc\" }";
+
+        when(configContext.getString("propertyName")).thenReturn("one");
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        assert(new String(event.getBody()).equals("abc"));
+    }
+
+    @Test
+    public void ensureJsonNumberValuesAreDiscarded() {
+        String eventJson = "{ \"one\" : 123 }";
+
+        when(configContext.getString("propertyName")).thenReturn("one");
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        assert(event == null);
+    }
+
+    @Test
+    public void ensureMissingFieldEventsAreDiscarded() {
+        String eventJson = "{ \"two\" : \"abc\" }";
+
+        when(configContext.getString("propertyName")).thenReturn("one");
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        assert(event == null);
+    }
+
+    @Test
+    public void ensureNonObjectJsonEventsAreDiscarded() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+
+        assert(interceptor().intercept(toEvent("[ \"one\" ]")) == null);
+        assert(interceptor().intercept(toEvent("\"one\"")) == null);
+    }
+
+    @Test
+    public void ensureFieldsCopiedToHeadersWithBodyKept() {
+        String eventJson = "{ \"level\" : \"INFO\", \"service\" : \"auth\", \"message\" : \"abc\" }";
+
+        when(configContext.getSubProperties("headers.")).thenReturn(
+                ImmutableMap.of("level", "level", "app", "service"));
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        assert(new String(event.getBody(), StandardCharsets.UTF_8).equals(eventJson));
+        assert(event.getHeaders().get("level").equals("INFO"));
+        assert(event.getHeaders().get("app").equals("auth"));
+    }
+
+    @Test
+    public void ensureMissingAndNonStringHeaderFieldsAreNotSet() {
+        String eventJson = "{ \"level\" : 3 }";
+
+        when(configContext.getSubProperties("headers.")).thenReturn(
+                ImmutableMap.of("level", "level", "app", "service"));
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        assert(event != null);
+        assert(event.getHeaders().isEmpty());
+    }
+
+    @Test
+    public void ensureEscapedValuesCopiedToHeaders() {
+        String eventJson = "{ \"one\" : \"a\\\"b\", \"two\" : \"c\\nd\" }";
+
+        when(configContext.getString("propertyName")).thenReturn("one");
+        when(configContext.getSubProperties("headers.")).thenReturn(
+                ImmutableMap.of("first", "one", "second", "two"));
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        assert(new String(event.getBody(), StandardCharsets.UTF_8).equals("a\"b"));
+        assert(event.getHeaders().get("first").equals("a\"b"));
+        assert(event.getHeaders().get("second").equals("c\nd"));
+    }
+
+    @Test
+    public void ensureMissingBodyFieldDiscardsEventWithHeaders() {
+        String eventJson = "{ \"level\" : \"INFO\" }";
+
+        when(configContext.getString("propertyName")).thenReturn("one");
+        when(configContext.getSubProperties("headers.")).thenReturn(ImmutableMap.of("level", "level"));
+        Event event = interceptor().intercept(toEvent(eventJson));
+
+        assert(event == null);
+    }
+
+    @Test
+    public void ensureInvalidJsonEventsAreDiscardedWithHeaders() {
+        when(configContext.getSubProperties("headers.")).thenReturn(ImmutableMap.of("level", "level"));
+        Event event = interceptor().intercept(toEvent("{ foo, \"level\" : \"INFO\" }"));
+
+        assert(event == null);
+    }
+
+    @Test
+    public void ensureRepeatedHeaderValuesAreShared() {
+        when(configContext.getInteger(eq("headerValueCacheSize"), anyInt())).thenReturn(16);
+        when(configContext.getSubProperties("headers.")).thenReturn(ImmutableMap.of("level", "level"));
+        Interceptor interceptor = interceptor();
+
+        Event first = interceptor.intercept(toEvent("{ \"level\" : \"INFO\" }"));
+        Event second = interceptor.intercept(toEvent("{ \"level\" : \"INFO\", \"id\" : 2 }"));
+
+        assert(first.getHeaders().get("level") == second.getHeaders().get("level"));
+    }
+
+    @Test
+    public void ensureDiscardedEventsAreRemovedFromBatch() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+
+        List<Event> events = batch(10);
+        List<Event> intercepted = interceptor().intercept(events);
+
+        assertEvenBodiesInOrder(intercepted, 10);
+    }
+
+    @Test
+    public void ensureDiscardedEventsAreRemovedFromLinkedBatch() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+
+        List<Event> events = new LinkedList<>(batch(10));
+        List<Event> intercepted = interceptor().intercept(events);
+
+        assertEvenBodiesInOrder(intercepted, 10);
+    }
+
+    @Test
+    public void ensureDiscardedEventsAreRemovedFromFixedSizeBatch() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+
+        List<Event> events = Arrays.asList(batch(10).toArray(new Event[10]));
+        List<Event> intercepted = interceptor().intercept(events);
+
+        assertEvenBodiesInOrder(intercepted, 10);
+        assert(interceptor().intercept(Collections.singletonList(toEvent("{ foo }"))).isEmpty());
+    }
+
+    @Test
+    public void ensureLargeBatchesAreInterceptedInParallelInOrder() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+        when(configContext.getInteger(eq("parallelThreshold"), anyInt())).thenReturn(16);
+        when(configContext.getInteger(eq("parallelism"), anyInt())).thenReturn(4);
+        Interceptor interceptor = interceptor();
+        interceptor.initialize();
+
+        try {
+            List<Event> intercepted = interceptor.intercept(batch(1000));
+            assertEvenBodiesInOrder(intercepted, 1000);
+        } finally {
+            interceptor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfParallelThresholdNegative() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+        when(configContext.getInteger(eq("parallelThreshold"), anyInt())).thenReturn(-1);
+        interceptor();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfParallelismNotPositive() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+        when(configContext.getInteger(eq("parallelThreshold"), anyInt())).thenReturn(16);
+        when(configContext.getInteger(eq("parallelism"), anyInt())).thenReturn(0);
+        interceptor();
+    }
+
+    @Test
+    public void ensureOutcomesAreCounted() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+        JsonFieldExtractorInterceptor interceptor = (JsonFieldExtractorInterceptor) interceptor();
+
+        interceptor.intercept(toEvent("{ \"one\" : \"abc\" }"));
+        interceptor.intercept(toEvent("{ \"one\" : \"a\\nc\" }"));
+        interceptor.intercept(toEvent("{ \"two\" : \"abc\" }"));
+        interceptor.intercept(toEvent("{ \"one\" : 1 }"));
+        interceptor.intercept(toEvent("{ foo }"));
+
+        JsonFieldExtractorCounter counter = interceptor.getCounter();
+        assert(counter.getExtractedCount() == 2);
+        assert(counter.getMissingFieldCount() == 1);
+        assert(counter.getNonStringValueCount() == 1);
+        assert(counter.getInvalidJsonCount() == 1);
+        assert(counter.getIoErrorCount() == 0);
+        assert(counter.getBodySize99thPercentile() >= 18);
+    }
+
+    @Test
+    public void ensureHeaderOnlyOutcomesAreCounted() {
+        when(configContext.getSubProperties("headers.")).thenReturn(
+                ImmutableMap.of("level", "level", "app", "service"));
+        JsonFieldExtractorInterceptor interceptor = (JsonFieldExtractorInterceptor) interceptor();
+
+        interceptor.intercept(toEvent("{ \"level\" : \"INFO\", \"service\" : \"auth\" }"));
+        interceptor.intercept(toEvent("{ \"level\" : \"INFO\" }"));
+        interceptor.intercept(toEvent("{ \"level\" : 3, \"service\" : \"auth\" }"));
+
+        JsonFieldExtractorCounter counter = interceptor.getCounter();
+        assert(counter.getExtractedCount() == 1);
+        assert(counter.getMissingFieldCount() == 1);
+        assert(counter.getNonStringValueCount() == 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfNoFieldsConfigured() {
+        interceptor();
+    }
+
+    @Test
+    public void ensureDefaultCounterNamesAreDistinct() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+        JsonFieldExtractorInterceptor first = (JsonFieldExtractorInterceptor) interceptor();
+        JsonFieldExtractorInterceptor second = (JsonFieldExtractorInterceptor) interceptor();
+
+        first.initialize();
+        try {
+            second.initialize();
+            try {
+                assert(first.getRunningName().equals("json-field-extractor"));
+                assert(second.getRunningName().equals("json-field-extractor-2"));
+            } finally {
+                second.close();
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    @Test
+    public void ensureExceptionIfConfiguredCounterNameInUse() {
+        when(configContext.getString("propertyName")).thenReturn("one");
+        when(configContext.getString("name")).thenReturn("extractor");
+        Interceptor first = interceptor();
+        Interceptor second = interceptor();
+
+        first.initialize();
+        try {
+            second.initialize();
+            assert(false);
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            first.close();
+        }
+
+        // the name is free again once the first interceptor is closed
+        second.initialize();
+        second.close();
+    }
+
+    /**
+     * Creates a batch where the events with an odd index are missing the
+     * field, and so are discarded.
+     */
+    private List<Event> batch(int size) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String field = i % 2 == 0 ? "one" : "two";
+            events.add(toEvent("{ \"" + field + "\" : \"" + i + "\" }"));
+        }
+        return events;
+    }
+
+    private void assertEvenBodiesInOrder(List<Event> events, int size) {
+        assert(events.size() == size / 2);
+        for (int i = 0; i < events.size(); i++) {
+            assert(new String(events.get(i).getBody(), StandardCharsets.UTF_8).equals(String.valueOf(i * 2)));
+        }
+    }
+
     public Interceptor interceptor() {
         JsonFieldExtractorInterceptor.Builder builder =
                 new JsonFieldExtractorInterceptor.Builder();
@@ -74,7 +406,7 @@ public class JsonFieldExtractorInterceptorTest {
 
     public Event toEvent(String body) {
         Event event = new SimpleEvent();
-        event.setBody(body.getBytes());
+        event.setBody(body.getBytes(StandardCharsets.UTF_8));
         return event;
     }
 }
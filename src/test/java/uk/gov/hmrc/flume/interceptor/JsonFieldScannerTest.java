@@ -0,0 +1,96 @@
+package uk.gov.hmrc.flume.interceptor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class JsonFieldScannerTest {
+
+    @Test
+    public void ensureSimpleValueLocated() {
+        long[] locations = new long[1];
+
+        assert(JsonFieldScanner.scan(bytes("{\"one\":\"abc\"}"), names("one"), locations));
+        assert(JsonFieldScanner.offset(locations[0]) == 8);
+        assert(JsonFieldScanner.length(locations[0]) == 3);
+    }
+
+    @Test
+    public void ensureSeveralValuesLocatedInOnePass() {
+        long[] locations = new long[3];
+
+        assert(JsonFieldScanner.scan(bytes("{\"two\":\"de\",\"one\":\"abc\"}"), names("one", "two", "three"), locations));
+        assert(JsonFieldScanner.offset(locations[0]) == 19);
+        assert(JsonFieldScanner.length(locations[0]) == 3);
+        assert(JsonFieldScanner.offset(locations[1]) == 8);
+        assert(JsonFieldScanner.length(locations[1]) == 2);
+        assert(locations[2] == JsonFieldScanner.MISSING);
+    }
+
+    @Test
+    public void ensureEmptyObjectIsMissing() {
+        long[] locations = new long[1];
+
+        assert(JsonFieldScanner.scan(bytes(" { } "), names("one"), locations));
+        assert(locations[0] == JsonFieldScanner.MISSING);
+    }
+
+    @Test
+    public void ensureNonStringValuesReported() {
+        long[] locations = new long[1];
+
+        assert(JsonFieldScanner.scan(bytes("{\"one\":[1]}"), names("one"), locations));
+        assert(locations[0] == JsonFieldScanner.NOT_STRING);
+        assert(JsonFieldScanner.scan(bytes("{\"one\":null}"), names("one"), locations));
+        assert(locations[0] == JsonFieldScanner.NOT_STRING);
+    }
+
+    @Test
+    public void ensureEscapesAndInvalidInputFallBack() {
+        long[] locations = new long[1];
+
+        assert(!JsonFieldScanner.scan(bytes("{\"one\":\"a\\nb\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{ foo }"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":tru,\"one\":\"a\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":\"a\""), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes(""), names("one"), locations));
+    }
+
+    @Test
+    public void ensureMalformedSkippedValuesFallBack() {
+        long[] locations = new long[1];
+
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":[1,,}, \"one\":\"a\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":-,\"one\":\"a\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":01,\"one\":\"a\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":1.e5,\"one\":\"a\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":[1 2],\"one\":\"a\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":{\"a\" 1},\"one\":\"a\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":{\"a\":1,},\"one\":\"a\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(bytes("{\"two\":\"\\q\",\"one\":\"a\"}"), names("one"), locations));
+        assert(!JsonFieldScanner.scan(
+                new byte[] { '{', '"', 't', '"', ':', '"', (byte) 0xC3, '"', ',', '"', 'o', 'n', 'e', '"', ':', '"', 'a', '"', '}' },
+                names("one"), locations));
+    }
+
+    @Test
+    public void ensureValidSkippedValuesAccepted() {
+        long[] locations = new long[1];
+
+        assert(JsonFieldScanner.scan(bytes("{\"two\":[ ],\"three\":{ },\"four\":[0, -0.5E+2, \"\\u00e9\\/\"],"
+                + "\"one\":\"a\"}"), names("one"), locations));
+        assert(JsonFieldScanner.offset(locations[0]) >= 0);
+    }
+
+    private byte[][] names(String... values) {
+        byte[][] names = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            names[i] = bytes(values[i]);
+        }
+        return names;
+    }
+
+    private byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,138 @@
+package uk.gov.hmrc.flume.interceptor;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.SimpleEvent;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class JsonProjectionInterceptorTest {
+
+    private static final String EVENT_JSON = "{ \"level\" : \"INFO\", "
+            + "\"request\" : { \"method\" : \"GET\", \"headers\" : { \"host\" : \"example.com\", \"x\" : [ 1 ] } }, "
+            + "\"user\" : { \"id\" : 42, \"roles\" : [ \"a\", \"b\" ] }, "
+            + "\"message\" : \"hello\" }";
+
+    @Test
+    public void ensureNestedPathsProjectedIntoBody() {
+        Event event = interceptor("request.headers.host user.id level", "body").intercept(toEvent(EVENT_JSON));
+
+        String newBody = new String(event.getBody(), StandardCharsets.UTF_8);
+
+        assert(newBody.equals("{\"level\":\"INFO\",\"request.headers.host\":\"example.com\",\"user.id\":42}"));
+    }
+
+    @Test
+    public void ensureObjectAndArrayValuesProjectedAsJson() {
+        Event event = interceptor("user.roles,request.headers", "body").intercept(toEvent(EVENT_JSON));
+
+        String newBody = new String(event.getBody(), StandardCharsets.UTF_8);
+
+        assert(newBody.equals("{\"request.headers\":{\"host\":\"example.com\",\"x\":[1]},\"user.roles\":[\"a\",\"b\"]}"));
+    }
+
+    @Test
+    public void ensurePathsCopiedToHeadersAndBodyKept() {
+        Context context = context("request.headers.host user.id user.roles level missing", "headers");
+        context.put("headerPrefix", "json.");
+        Event event = interceptor(context).intercept(toEvent(EVENT_JSON));
+
+        assert(new String(event.getBody(), StandardCharsets.UTF_8).equals(EVENT_JSON));
+        assert(event.getHeaders().get("json.request.headers.host").equals("example.com"));
+        assert(event.getHeaders().get("json.user.id").equals("42"));
+        assert(event.getHeaders().get("json.user.roles").equals("[\"a\",\"b\"]"));
+        assert(event.getHeaders().get("json.level").equals("INFO"));
+        assert(!event.getHeaders().containsKey("json.missing"));
+    }
+
+    @Test
+    public void ensureParsingStopsOnceAllPathsFound() {
+        // the body is invalid after the wanted field, so it must not be read
+        Event event = interceptor("level", "body").intercept(toEvent("{ \"level\" : \"WARN\", foo }"));
+
+        assert(new String(event.getBody(), StandardCharsets.UTF_8).equals("{\"level\":\"WARN\"}"));
+    }
+
+    @Test
+    public void ensureOnlyFirstValueOfDuplicateFieldUsed() {
+        String json = "{\"level\":\"a\",\"level\":\"b\",\"user\":{\"id\":\"x\"}}";
+        Event event = interceptor("level user.id", "body").intercept(toEvent(json));
+
+        String newBody = new String(event.getBody(), StandardCharsets.UTF_8);
+
+        assert(newBody.equals("{\"level\":\"a\",\"user.id\":\"x\"}"));
+    }
+
+    @Test
+    public void ensureInvalidJsonEventsAreDiscarded() {
+        Interceptor interceptor = interceptor("level", "body");
+
+        assert(interceptor.intercept(toEvent("{ foo }")) == null);
+        assert(interceptor.intercept(toEvent("[ \"level\" ]")) == null);
+    }
+
+    @Test
+    public void ensureDiscardedEventsRemovedFromBatch() {
+        List<Event> events = interceptor("level", "body")
+                .intercept(Arrays.asList(toEvent("{ foo }"), toEvent(EVENT_JSON)));
+
+        assert(events.size() == 1);
+    }
+
+    @Test
+    public void ensureOutcomesAreCounted() {
+        JsonProjectionInterceptor interceptor = (JsonProjectionInterceptor) interceptor("level", "body");
+
+        interceptor.intercept(toEvent(EVENT_JSON));
+        interceptor.intercept(toEvent("{ \"other\" : 1 }"));
+        interceptor.intercept(toEvent("{ foo }"));
+        interceptor.intercept(toEvent("[ \"level\" ]"));
+
+        JsonFieldExtractorCounter counter = interceptor.getCounter();
+        assert(counter.getExtractedCount() == 2);
+        assert(counter.getInvalidJsonCount() == 2);
+        assert(counter.getIoErrorCount() == 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfNoPathsConfigured() {
+        interceptor("", "body");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfPathIsPrefixOfAnotherPath() {
+        interceptor("user user.id", "body");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfOutputUnknown() {
+        interceptor("level", "stdout");
+    }
+
+    private Interceptor interceptor(String paths, String output) {
+        return interceptor(context(paths, output));
+    }
+
+    private Interceptor interceptor(Context context) {
+        JsonProjectionInterceptor.Builder builder = new JsonProjectionInterceptor.Builder();
+        builder.configure(context);
+        return builder.build();
+    }
+
+    private Context context(String paths, String output) {
+        Context context = new Context();
+        context.put("paths", paths);
+        context.put("output", output);
+        return context;
+    }
+
+    private Event toEvent(String body) {
+        Event event = new SimpleEvent();
+        event.setBody(body.getBytes(StandardCharsets.UTF_8));
+        return event;
+    }
+}
@@ -0,0 +1,53 @@
+package uk.gov.hmrc.flume.interceptor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class ValueCacheTest {
+
+    @Test
+    public void ensureRepeatedValuesReturnSameInstance() {
+        ValueCache cache = new ValueCache(16);
+
+        String first = cache.get(bytes("xxINFOxx"), 2, 4);
+        String second = cache.get(bytes("INFO"), 0, 4);
+
+        assert(first.equals("INFO"));
+        assert(first == second);
+    }
+
+    @Test
+    public void ensureDistinctValuesAreDecoded() {
+        ValueCache cache = new ValueCache(1);
+
+        assert(cache.get(bytes("INFO"), 0, 4).equals("INFO"));
+        assert(cache.get(bytes("WARN"), 0, 4).equals("WARN"));
+        assert(cache.get(bytes("INFO"), 0, 4).equals("INFO"));
+    }
+
+    @Test
+    public void ensureMultiByteValuesAreDecoded() {
+        byte[] value = bytes("caf\u00e9");
+
+        assert(new ValueCache(16).get(value, 0, value.length).equals("caf\u00e9"));
+    }
+
+    @Test
+    public void ensureLongValuesAreNotCached() {
+        ValueCache cache = new ValueCache(16);
+        byte[] value = new byte[ValueCache.MAX_VALUE_LENGTH + 1];
+        Arrays.fill(value, (byte) 'a');
+
+        String first = cache.get(value, 0, value.length);
+        String second = cache.get(value, 0, value.length);
+
+        assert(first.equals(second));
+        assert(first != second);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
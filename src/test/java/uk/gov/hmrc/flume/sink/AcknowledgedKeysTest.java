@@ -0,0 +1,81 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.junit.Test;
+
+public class AcknowledgedKeysTest {
+
+    @Test
+    public void ensureEachAcknowledgementSkipsOneEvent() {
+        AcknowledgedKeys keys = new AcknowledgedKeys(10);
+        keys.acknowledge(1);
+        keys.acknowledge(1);
+
+        boolean first = keys.skip(1);
+        boolean second = keys.skip(1);
+        boolean third = keys.skip(1);
+        boolean other = keys.skip(2);
+
+        assert(first);
+        assert(second);
+        assert(!third);
+        assert(!other);
+    }
+
+    @Test
+    public void ensureSkippedKeysRestoredOnRollback() {
+        AcknowledgedKeys keys = new AcknowledgedKeys(10);
+        keys.acknowledge(1);
+        keys.skip(1);
+        keys.rollback();
+
+        boolean skipped = keys.skip(1);
+
+        assert(skipped);
+    }
+
+    @Test
+    public void ensureKeysClearedOnCommit() {
+        AcknowledgedKeys keys = new AcknowledgedKeys(10);
+        keys.acknowledge(1);
+        keys.acknowledge(2);
+        keys.skip(1);
+        keys.commit();
+
+        boolean skipped = keys.skip(2);
+
+        assert(!skipped);
+        assert(keys.size() == 0);
+    }
+
+    @Test
+    public void ensureLeastRecentlyUsedKeyEvicted() {
+        AcknowledgedKeys keys = new AcknowledgedKeys(2);
+        keys.acknowledge(1);
+        keys.acknowledge(1);
+        keys.acknowledge(2);
+        keys.skip(1);
+        keys.acknowledge(3);
+
+        boolean first = keys.skip(1);
+        boolean second = keys.skip(2);
+        boolean third = keys.skip(3);
+
+        assert(first);
+        assert(!second);
+        assert(third);
+    }
+
+    @Test
+    public void ensureKeysStableForSameBytes() {
+        long key = IdempotencyKeys.hash("event body".getBytes());
+        long same = IdempotencyKeys.hash("event body".getBytes());
+        long other = IdempotencyKeys.hash("event bodz".getBytes());
+
+        assert(key == same);
+        assert(key != other);
+        assert(IdempotencyKeys.toString(1).equals("0000000000000001"));
+        assert(IdempotencyKeys.combine(new long[] { key, other }, 0, 1) == key);
+        assert(IdempotencyKeys.combine(new long[] { key, other }, 0, 2)
+                != IdempotencyKeys.combine(new long[] { other, key }, 0, 2));
+    }
+}
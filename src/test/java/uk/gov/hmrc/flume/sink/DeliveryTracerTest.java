@@ -0,0 +1,72 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.apache.flume.Sink.Status;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.gov.hmrc.flume.sink.DeliveryTrace.Stage;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class DeliveryTracerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ensureNothingSampledWhenDisabled() {
+        DeliveryTracer tracer = new DeliveryTracer("sink", 0, null, "10MB", 5);
+
+        for (int i = 0; i < 100; i++) {
+            assert(tracer.sample() == DeliveryTrace.UNSAMPLED);
+        }
+    }
+
+    @Test
+    public void ensureUnsampledTraceRecordsNothing() {
+        DeliveryTrace trace = DeliveryTrace.UNSAMPLED;
+
+        trace.record(Stage.TAKE, trace.start());
+
+        assert(trace.getStageNanos(Stage.TAKE) == 0);
+    }
+
+    @Test
+    public void ensureSampledStagesRecordedInHistograms() throws Exception {
+        DeliveryTracer tracer = new DeliveryTracer("sink", 1, null, "10MB", 5);
+
+        DeliveryTrace trace = tracer.sample();
+        long start = trace.start();
+        Thread.sleep(2);
+        trace.record(Stage.RESPONSE, start);
+        tracer.finish(trace, 1, Status.READY);
+
+        assert(trace.isSampled());
+        assert(tracer.getCounter().getSampledCount() == 1);
+        assert(tracer.getCounter().getResponseTimeMedian() >= 1000);
+        assert(tracer.getCounter().getTotalTimeMedian() >= tracer.getCounter().getResponseTimeMedian());
+    }
+
+    @Test
+    public void ensureTraceRecordsWrittenToFile() throws Exception {
+        File traceFile = new File(folder.getRoot(), "trace.log");
+        DeliveryTracer tracer = new DeliveryTracer("sink", 1, traceFile.getPath(), "10MB", 5);
+        tracer.start();
+
+        try {
+            DeliveryTrace trace = tracer.sample();
+            trace.record(Stage.TAKE, trace.start());
+            tracer.finish(trace, 3, Status.READY);
+        } finally {
+            tracer.stop();
+        }
+
+        List<String> lines = Files.readAllLines(traceFile.toPath(), StandardCharsets.UTF_8);
+        assert(lines.size() == 1);
+        assert(lines.get(0).contains("sink=sink events=3 status=READY take="));
+        assert(lines.get(0).contains(" commit=0 total="));
+    }
+}
@@ -0,0 +1,44 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DnsRefresherTest {
+
+    @Test
+    public void ensureHostResolvedOnStart() {
+        AtomicInteger lookups = new AtomicInteger();
+        DnsRefresher refresher = new DnsRefresher("localhost", 60000) {
+            @Override
+            InetAddress[] resolve() throws UnknownHostException {
+                lookups.incrementAndGet();
+                return super.resolve();
+            }
+        };
+        refresher.start();
+        try {
+            assert(lookups.get() == 1);
+        } finally {
+            refresher.stop();
+        }
+    }
+
+    @Test
+    public void ensureUnresolvableHostDoesNotStopRefreshing() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        DnsRefresher refresher = new DnsRefresher("unresolvable.invalid", 60000) {
+            @Override
+            InetAddress[] resolve() throws UnknownHostException {
+                lookups.incrementAndGet();
+                return super.resolve();
+            }
+        };
+        refresher.refresh();
+        refresher.refresh();
+
+        assert(lookups.get() == 2);
+    }
+}
@@ -0,0 +1,43 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.junit.Test;
+
+public class HttpSinkHandoverTest {
+
+    private static final String ENDPOINT = "http://localhost:8080/endpoint";
+
+    @Test
+    public void ensureRetainedStateTakenOverOnce() {
+        HttpSinkHandover handover = new HttpSinkHandover(60000);
+        HttpSinkStats stats = new HttpSinkStats();
+        RequestHedger hedger = new RequestHedger(95, 50, 5);
+
+        handover.retain("sink", ENDPOINT, stats, hedger);
+        HttpSinkHandover.Retained retained = handover.take("sink", ENDPOINT);
+
+        assert(retained.getStats() == stats);
+        assert(retained.getHedger() == hedger);
+        assert(handover.take("sink", ENDPOINT) == null);
+        assert(handover.take("other", ENDPOINT) == null);
+    }
+
+    @Test
+    public void ensureStateNotTakenOverForAnotherEndpoint() {
+        HttpSinkHandover handover = new HttpSinkHandover(60000);
+
+        handover.retain("sink", ENDPOINT, new HttpSinkStats(), new RequestHedger(95, 50, 5));
+
+        assert(handover.take("sink", "http://localhost:8081/endpoint") == null);
+        assert(handover.take("sink", ENDPOINT) == null);
+    }
+
+    @Test
+    public void ensureExpiredStateNotTakenOver() throws Exception {
+        HttpSinkHandover handover = new HttpSinkHandover(1);
+
+        handover.retain("sink", ENDPOINT, new HttpSinkStats(), null);
+        Thread.sleep(50);
+
+        assert(handover.take("sink", ENDPOINT) == null);
+    }
+}
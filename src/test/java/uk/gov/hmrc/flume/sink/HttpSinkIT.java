@@ -11,7 +11,6 @@ import com.github.tomakehurst.wiremock.http.Fault;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import org.apache.flume.*;
 import org.apache.flume.event.SimpleEvent;
-import org.apache.flume.instrumentation.SinkCounter;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -36,7 +35,7 @@ public class HttpSinkIT {
     private HttpSink httpSink;
 
     @Mock
-    private SinkCounter sinkCounter;
+    private HttpSinkCounter sinkCounter;
 
     @Mock
     private Channel channel;
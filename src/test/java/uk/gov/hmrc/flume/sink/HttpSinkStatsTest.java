@@ -0,0 +1,55 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.junit.Test;
+
+public class HttpSinkStatsTest {
+
+    @Test
+    public void ensureFirstRequestSeedsAverages() {
+        HttpSinkStats stats = new HttpSinkStats();
+        stats.setFailureLatency(0);
+        stats.recordFailure(1000);
+
+        assert(stats.getLatencyEwma() == 1000.0);
+        assert(stats.getErrorRate() == 1.0);
+    }
+
+    @Test
+    public void ensureAveragesMoveTowardsRecentRequests() {
+        HttpSinkStats stats = new HttpSinkStats(0.5);
+        stats.setFailureLatency(0);
+        stats.recordFailure(1000);
+        stats.recordSuccess(3000);
+
+        assert(stats.getLatencyEwma() == 2000.0);
+        assert(stats.getErrorRate() == 0.5);
+        assert(stats.getRequestCount() == 2);
+    }
+
+    @Test
+    public void ensureErrorsInflateScore() {
+        HttpSinkStats healthy = new HttpSinkStats();
+        healthy.recordSuccess(2000);
+
+        HttpSinkStats failing = new HttpSinkStats();
+        failing.setFailureLatency(0);
+        failing.recordFailure(1000);
+
+        assert(failing.score(10) > healthy.score(10));
+        assert(failing.score(0) < healthy.score(0));
+    }
+
+    @Test
+    public void ensureFastFailuresRecordedAtFailureLatency() {
+        HttpSinkStats healthy = new HttpSinkStats();
+        healthy.recordSuccess(20000000);
+
+        HttpSinkStats failing = new HttpSinkStats();
+        failing.setFailureLatency(5000000000L);
+        failing.recordFailure(1000000);
+
+        assert(failing.getLatencyEwma() == 5000000000.0);
+        assert(failing.score(10) > healthy.score(10));
+        assert(failing.score(0) > healthy.score(0));
+    }
+}
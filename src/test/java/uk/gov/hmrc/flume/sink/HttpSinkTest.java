@@ -4,17 +4,29 @@ import static org.mockito.Mockito.*;
 
 import org.apache.flume.*;
 import org.apache.flume.Sink.Status;
-import org.apache.flume.instrumentation.SinkCounter;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.flume.event.SimpleEvent;
 
 @RunWith(MockitoJUnitRunner.class)
 public class HttpSinkTest {
@@ -25,7 +37,7 @@ public class HttpSinkTest {
     private static final String DEFAULT_CONTENT_TYPE_HEADER = "text/plain";
 
     @Mock
-    private SinkCounter sinkCounter;
+    private HttpSinkCounter sinkCounter;
 
     @Mock
     private Context configContext;
@@ -48,6 +60,18 @@ public class HttpSinkTest {
     @Mock
     private InputStream inputStream;
 
+    @Mock
+    private HttpURLConnection hedgeURLConnection;
+
+    private int chunkedRequests;
+
+    private final List<String> idempotencyKeys = new ArrayList<>();
+
+    @Before
+    public void whenDefaultBatchSize() {
+        when(configContext.getInteger(eq("batchSize"), Mockito.anyInt())).thenReturn(1);
+    }
+
     @Test
     public void ensureAllConfigurationOptionsRead() {
         whenDefaultStringConfig();
@@ -65,6 +89,12 @@ public class HttpSinkTest {
         verify(configContext).getBoolean("defaultBackoff", true);
         verify(configContext).getBoolean("defaultRollback", true);
         verify(configContext).getBoolean("defaultIncrementMetrics", false);
+        verify(configContext).getInteger(eq("prewarmConnections"), Mockito.anyInt());
+        verify(configContext).getInteger(eq("dnsRefreshInterval"), Mockito.anyInt());
+        verify(configContext).getInteger(eq("sslSessionCacheSize"), Mockito.anyInt());
+        verify(configContext).getInteger(eq("sslSessionTimeout"), Mockito.anyInt());
+        verify(configContext).getBoolean("sharedClient", false);
+        verify(configContext).getInteger(eq("batchSize"), Mockito.anyInt());
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -113,6 +143,22 @@ public class HttpSinkTest {
         verify(configContext).getInteger("requestTimeout", DEFAULT_REQUEST_TIMEOUT);
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfPrewarmConnectionsNegative() {
+        whenDefaultStringConfig();
+        whenDefaultTimeouts();
+        when(configContext.getInteger(eq("prewarmConnections"), Mockito.anyInt())).thenReturn(-1);
+        new HttpSink().configure(configContext);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfDnsRefreshIntervalNegative() {
+        whenDefaultStringConfig();
+        whenDefaultTimeouts();
+        when(configContext.getInteger(eq("dnsRefreshInterval"), Mockito.anyInt())).thenReturn(-1);
+        new HttpSink().configure(configContext);
+    }
+
     @Test
     public void ensureDefaultAcceptHeaderCorrect() {
         whenDefaultTimeouts();
@@ -225,6 +271,815 @@ public class HttpSinkTest {
         executeWithMocks(false, Status.BACKOFF, false, true, context, HttpURLConnection.HTTP_OK);
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfHedgeEndpointMissing() {
+        Context context = new Context();
+        context.put("endpoint", "http://localhost:8080/endpoint");
+        context.put("hedgeEnabled", "true");
+        new HttpSink().configure(context);
+    }
+
+    @Test
+    public void ensureSlowRequestHedgedToSecondaryEndpoint() throws Exception {
+        when(channel.take()).thenReturn(event);
+        when(event.getBody()).thenReturn("something".getBytes());
+
+        Context context = new Context();
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+        context.put("hedgeEnabled", "true");
+        context.put("hedgeEndpoint", "http://localhost:8081/endpoint");
+        context.put("hedgeMinDelay", "20");
+        context.put("hedgeBudget", "100");
+
+        HttpSink httpSink = hedgingSink(context);
+
+        when(httpURLConnection.getOutputStream()).thenReturn(outputStream);
+        when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        when(httpURLConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        for (int i = 0; i < RequestHedger.MIN_SAMPLES; i++) {
+            httpSink.process();
+        }
+        verify(sinkCounter, never()).incrementHedgeFiredCount();
+
+        CountDownLatch release = new CountDownLatch(1);
+        when(httpURLConnection.getResponseCode()).thenAnswer(invocation -> {
+            release.await();
+            return HttpURLConnection.HTTP_OK;
+        });
+        when(hedgeURLConnection.getOutputStream()).thenReturn(outputStream);
+        when(hedgeURLConnection.getInputStream()).thenReturn(inputStream);
+        when(hedgeURLConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+
+        try {
+            Status status = httpSink.process();
+
+            assert(status == Status.READY);
+            verify(sinkCounter).incrementHedgeFiredCount();
+            verify(sinkCounter).incrementHedgeWonCount();
+            verify(httpURLConnection).disconnect();
+            verify(transaction, times(RequestHedger.MIN_SAMPLES + 1)).commit();
+            assert(httpSink.getHedger().getSampleCount() == RequestHedger.MIN_SAMPLES + 1);
+        } finally {
+            release.countDown();
+            httpSink.stop();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfBatchSizeNotPositive() {
+        Context context = new Context();
+        context.put("endpoint", "http://localhost:8080/endpoint");
+        context.put("batchSize", "0");
+        new HttpSink().configure(context);
+    }
+
+    @Test
+    public void ensureBatchSentAsDelimitedRequest() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), event("two", null), null);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+        Status status = batchingSink(context).process();
+
+        assert(status == Status.READY);
+        assert(requests.equals(Collections.singletonList("one\ntwo")));
+        verify(transaction).commit();
+        verify(sinkCounter).addToEventDrainAttemptCount(2);
+        verify(sinkCounter).incrementBatchUnderflowCount();
+    }
+
+    @Test
+    public void ensureHigherPriorityLanesSentFirst() throws Exception {
+        when(channel.take()).thenReturn(event("b1", "bulk"), event("u1", "urgent"),
+                event("x1", null), event("u2", "urgent"), null);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("batchDelimiter", ",");
+        context.put("laneHeader", "priority");
+        context.put("lanes", "urgent bulk");
+        context.put("lanes.urgent.batchSize", "5");
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+        Status status = batchingSink(context).process();
+
+        assert(status == Status.READY);
+        assert(requests.get(0).equals("u1,u2"));
+        assert(requests.get(1).equals("b1,x1"));
+        assert(requests.size() == 2);
+        verify(transaction).commit();
+    }
+
+    @Test
+    public void ensureFullUrgentLaneSentWithoutWaitingForBatch() throws Exception {
+        when(channel.take()).thenReturn(event("b1", "bulk"), event("u1", "urgent"), event("b2", "bulk"));
+
+        Context context = new Context();
+        context.put("batchSize", "100");
+        context.put("laneHeader", "priority");
+        context.put("lanes", "urgent,bulk");
+        context.put("lanes.urgent.batchSize", "1");
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+        batchingSink(context).process();
+
+        verify(channel, times(2)).take();
+        assert(requests.get(0).equals("u1"));
+        assert(requests.get(1).equals("b1"));
+    }
+
+    @Test
+    public void ensureRemainingRequestsNotSentAfterRollback() throws Exception {
+        when(channel.take()).thenReturn(event("u1", "urgent"), event("b1", "bulk"), null);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("laneHeader", "priority");
+        context.put("lanes", "urgent bulk");
+        context.put("lanes.urgent.batchSize", "5");
+
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_UNAVAILABLE);
+        Status status = batchingSink(context).process();
+
+        assert(status == Status.BACKOFF);
+        assert(requests.size() == 1);
+        verify(transaction).rollback();
+        verify(transaction, never()).commit();
+    }
+
+    @Test
+    public void ensureRestartedSinkTakesOverStateOfSameName() {
+        HttpSink first = namedSink("handover", hedgingContext("95"));
+        first.start();
+        first.stop();
+
+        HttpSink second = namedSink("handover", hedgingContext("95"));
+        second.start();
+        try {
+            assert(second.getStats() == first.getStats());
+            assert(second.getHedger() == first.getHedger());
+        } finally {
+            second.stop();
+        }
+    }
+
+    @Test
+    public void ensureHedgingHistoryNotTakenOverWhenSettingsChange() {
+        HttpSink first = namedSink("handover-changed", hedgingContext("95"));
+        first.start();
+        first.stop();
+
+        HttpSink second = namedSink("handover-changed", hedgingContext("99"));
+        second.start();
+        try {
+            assert(second.getStats() == first.getStats());
+            assert(second.getHedger() != first.getHedger());
+        } finally {
+            second.stop();
+        }
+    }
+
+    @Test
+    public void ensureStateNotTakenOverWhenEndpointChanges() {
+        HttpSink first = namedSink("handover-moved", hedgingContext("95"));
+        first.start();
+        first.stop();
+
+        Context context = hedgingContext("95");
+        context.put("endpoint", "http://localhost:8082/endpoint");
+        HttpSink second = namedSink("handover-moved", context);
+        second.start();
+        try {
+            assert(second.getStats() != first.getStats());
+            assert(second.getHedger() != first.getHedger());
+        } finally {
+            second.stop();
+        }
+    }
+
+    @Test
+    public void ensureStatusDecisionsUseMostSpecificOverride() {
+        Map<String, Boolean> overrides = new HashMap<>();
+        overrides.put("5XX", true);
+        overrides.put("503", false);
+        ResponseDecisions decisions = new ResponseDecisions(
+                overrides, false, Collections.emptyMap(), true, Collections.emptyMap(), false);
+
+        assert(decisions.shouldRollback(500));
+        assert(!decisions.shouldRollback(503));
+        assert(!decisions.shouldRollback(200));
+        assert(decisions.shouldRollback(599));
+        assert(decisions.shouldBackoff(200));
+        assert(!decisions.shouldIncrementMetrics(200));
+    }
+
+    @Test
+    public void ensureAdaptiveIdlePollsUntilEventArrives() throws Exception {
+        when(channel.take()).thenReturn(null, null, null, null, null, event("one", null), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+
+        Context context = new Context();
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+        context.put("idleStrategy", "adaptive");
+        context.put("idleSpins", "2");
+        context.put("idleYields", "2");
+        HttpSink httpSink = batchingSink(context);
+
+        Status status = httpSink.process();
+
+        assert(status == Status.READY);
+        assert(requests.size() == 1);
+        verify(transaction, times(1)).begin();
+        verify(transaction).commit();
+        verify(sinkCounter, never()).incrementIdleCount();
+    }
+
+    @Test
+    public void ensureIdleWaitTracedSeparatelyFromTake() throws Exception {
+        File traceFile = File.createTempFile("trace", ".log");
+        when(channel.take()).thenReturn(null);
+
+        Context context = new Context();
+        context.put("idleStrategy", "adaptive");
+        context.put("idleMaxLatency", "5");
+        context.put("idleTimeout", "50");
+        context.put("traceSampleRate", "1");
+        context.put("traceFile", traceFile.getPath());
+        HttpSink httpSink = batchingSink(context);
+
+        try {
+            httpSink.start();
+            httpSink.process();
+            httpSink.stop();
+
+            String line = Files.readAllLines(traceFile.toPath()).get(0);
+            long take = Long.parseLong(line.replaceAll(".* take=(\\d+).*", "$1"));
+            long idle = Long.parseLong(line.replaceAll(".* idle=(\\d+).*", "$1"));
+            assert(idle >= TimeUnit.MILLISECONDS.toNanos(50));
+            assert(take < TimeUnit.MILLISECONDS.toNanos(50));
+        } finally {
+            traceFile.delete();
+        }
+    }
+
+    @Test
+    public void ensureEmptyBodiesNotCountedAsIdle() throws Exception {
+        when(channel.take()).thenReturn(event("", null), (Event) null);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        HttpSink httpSink = batchingSink(context);
+
+        httpSink.process();
+
+        verify(transaction).commit();
+        verify(sinkCounter, never()).incrementIdleCount();
+    }
+
+    @Test
+    public void ensureAdaptiveIdleReturnsReadyAfterTimeout() throws Exception {
+        when(channel.take()).thenReturn(null);
+
+        Context context = new Context();
+        context.put("idleStrategy", "adaptive");
+        context.put("idleMaxLatency", "5");
+        context.put("idleTimeout", "50");
+        HttpSink httpSink = batchingSink(context);
+
+        long start = System.currentTimeMillis();
+        Status status = httpSink.process();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assert(status == Status.READY);
+        assert(elapsed >= 50);
+        verify(transaction).commit();
+        verify(sinkCounter).incrementIdleCount();
+        verify(sinkCounter, never()).incrementDeliveryBackoffCount();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfIdleStrategyUnknown() {
+        Context context = new Context();
+        context.put("endpoint", "http://localhost:8080/endpoint");
+        context.put("idleStrategy", "sleep");
+        new HttpSink().configure(context);
+    }
+
+    @Test
+    public void ensureBatchSplitToStayUnderMaxRequestBytes() throws Exception {
+        when(channel.take()).thenReturn(event("aaaa", null), event("bbbb", null), event("cccc", null), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("maxRequestBytes", "9");
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+        HttpSink httpSink = batchingSink(context);
+
+        Status status = httpSink.process();
+
+        assert(status == Status.READY);
+        assert(requests.equals(Arrays.asList("aaaa\nbbbb", "cccc")));
+        verify(transaction).commit();
+    }
+
+    @Test
+    public void ensureOversizedEventDropped() throws Exception {
+        when(channel.take()).thenReturn(event("aaaa", null), event("oversized", null), event("cccc", null), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("maxRequestBytes", "5");
+        context.put("oversizeAction", "drop");
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+        HttpSink httpSink = batchingSink(context);
+
+        Status status = httpSink.process();
+
+        assert(status == Status.READY);
+        assert(requests.equals(Arrays.asList("aaaa", "cccc")));
+        verify(sinkCounter).incrementOversizeEventCount();
+        verify(transaction).commit();
+    }
+
+    @Test
+    public void ensureOversizedEventWrittenToDeadLetterDirectory() throws Exception {
+        File deadLetterDirectory = Files.createTempDirectory("dead-letter").toFile();
+        when(channel.take()).thenReturn(event("oversized", null), (Event) null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("maxRequestBytes", "5");
+        context.put("oversizeAction", "deadLetter");
+        context.put("deadLetterDirectory", deadLetterDirectory.getPath());
+        HttpSink httpSink = batchingSink(context);
+
+        try {
+            httpSink.process();
+
+            File[] deadLetters = deadLetterDirectory.listFiles();
+            assert(requests.isEmpty());
+            assert(deadLetters.length == 1);
+            assert(new String(Files.readAllBytes(deadLetters[0].toPath())).equals("oversized"));
+            verify(transaction).commit();
+        } finally {
+            for (File deadLetter : deadLetterDirectory.listFiles()) {
+                deadLetter.delete();
+            }
+            deadLetterDirectory.delete();
+        }
+    }
+
+    @Test
+    public void ensureOversizedEventSentChunked() throws Exception {
+        when(channel.take()).thenReturn(event("aaaa", null), event("oversized", null), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("maxRequestBytes", "5");
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+        HttpSink httpSink = batchingSink(context);
+
+        Status status = httpSink.process();
+
+        assert(status == Status.READY);
+        assert(requests.equals(Arrays.asList("aaaa", "oversized")));
+        assert(chunkedRequests == 1);
+        verify(transaction).commit();
+    }
+
+    @Test
+    public void ensureRequestSplitOnEntityTooLarge() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), event("two", null), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+        when(httpURLConnection.getResponseCode()).thenReturn(413, HttpURLConnection.HTTP_OK);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+        HttpSink httpSink = batchingSink(context);
+
+        Status status = httpSink.process();
+
+        assert(status == Status.READY);
+        assert(requests.equals(Arrays.asList("one\ntwo", "one", "two")));
+        verify(sinkCounter).incrementRequestSplitCount();
+        verify(transaction).commit();
+        verify(transaction, never()).rollback();
+    }
+
+    @Test
+    public void ensureSingleEventDroppedOnEntityTooLarge() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), (Event) null);
+        captureRequests(413);
+
+        Context context = new Context();
+        context.put("oversizeAction", "drop");
+        HttpSink httpSink = batchingSink(context);
+
+        httpSink.process();
+
+        verify(sinkCounter).incrementOversizeEventCount();
+        verify(transaction).commit();
+        verify(transaction, never()).rollback();
+    }
+
+    @Test
+    public void ensureSameIdempotencyKeySentOnRetry() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), event("two", null), null,
+                event("one", null), event("two", null), null,
+                event("three", null), null);
+        captureRequests(HttpURLConnection.HTTP_OK);
+        when(httpURLConnection.getResponseCode()).thenReturn(503, HttpURLConnection.HTTP_OK);
+
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("idempotencyHeader", "Idempotency-Key");
+        context.put("rollback.200", "false");
+        HttpSink httpSink = batchingSink(context);
+
+        httpSink.process();
+        httpSink.process();
+        httpSink.process();
+
+        assert(idempotencyKeys.size() == 3);
+        assert(idempotencyKeys.get(0).length() == 16);
+        assert(idempotencyKeys.get(0).equals(idempotencyKeys.get(1)));
+        assert(!idempotencyKeys.get(0).equals(idempotencyKeys.get(2)));
+    }
+
+    @Test
+    public void ensureIdempotencyKeyTakenFromEventHeader() throws Exception {
+        Event first = event("one", null);
+        first.getHeaders().put("id", "event-1");
+        Event second = event("changed", null);
+        second.getHeaders().put("id", "event-1");
+        when(channel.take()).thenReturn(first, second, null);
+        captureRequests(HttpURLConnection.HTTP_OK);
+
+        Context context = new Context();
+        context.put("idempotencyHeader", "Idempotency-Key");
+        context.put("idempotencyEventHeader", "id");
+        context.put("rollback.200", "false");
+        HttpSink httpSink = batchingSink(context);
+
+        httpSink.process();
+        httpSink.process();
+
+        assert(idempotencyKeys.size() == 2);
+        assert(idempotencyKeys.get(0).equals(idempotencyKeys.get(1)));
+    }
+
+    @Test
+    public void ensureNoIdempotencyKeyByDefault() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), (Event) null);
+        captureRequests(HttpURLConnection.HTTP_OK);
+
+        HttpSink httpSink = batchingSink(new Context());
+
+        httpSink.process();
+
+        assert(idempotencyKeys.size() == 1);
+        assert(idempotencyKeys.get(0) == null);
+    }
+
+    @Test
+    public void ensureAcknowledgedEventsSkippedAfterRollback() throws Exception {
+        when(channel.take()).thenReturn(keyedEvent("aaaa", "1"), keyedEvent("bbbb", "2"), null,
+                keyedEvent("aaaa", "1"), keyedEvent("bbbb", "2"), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+        when(httpURLConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK, 503, HttpURLConnection.HTTP_OK);
+
+        HttpSink httpSink = batchingSink(acknowledgedKeysContext());
+
+        Status firstStatus = httpSink.process();
+        Status secondStatus = httpSink.process();
+
+        assert(firstStatus == Status.BACKOFF);
+        assert(secondStatus == Status.READY);
+        assert(requests.equals(Arrays.asList("aaaa", "bbbb", "bbbb")));
+        verify(sinkCounter).incrementDuplicateSkippedCount();
+        verify(transaction).rollback();
+        verify(transaction).commit();
+    }
+
+    @Test
+    public void ensureEventsWithoutKeyHeaderNeverSkipped() throws Exception {
+        when(channel.take()).thenReturn(event("hb", null), event("hb", null), null,
+                event("hb", null), event("hb", null), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+        when(httpURLConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK, 503, HttpURLConnection.HTTP_OK);
+
+        Context context = acknowledgedKeysContext();
+        context.put("maxRequestBytes", "2");
+        HttpSink httpSink = batchingSink(context);
+
+        httpSink.process();
+        httpSink.process();
+
+        assert(requests.equals(Arrays.asList("hb", "hb", "hb", "hb")));
+        verify(sinkCounter, never()).incrementDuplicateSkippedCount();
+    }
+
+    @Test
+    public void ensureNewEventWithSameBodySentWhenRolledBackEventsTakenElsewhere() throws Exception {
+        // the rolled back events are taken by another sink, so this sink next takes a new event
+        when(channel.take()).thenReturn(keyedEvent("aaaa", "1"), keyedEvent("bbbb", "2"), null,
+                keyedEvent("aaaa", "3"), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+        when(httpURLConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK, 503, HttpURLConnection.HTTP_OK);
+
+        HttpSink httpSink = batchingSink(acknowledgedKeysContext());
+
+        httpSink.process();
+        Status status = httpSink.process();
+
+        assert(status == Status.READY);
+        assert(requests.equals(Arrays.asList("aaaa", "bbbb", "aaaa")));
+        verify(sinkCounter, never()).incrementDuplicateSkippedCount();
+        verify(transaction).commit();
+    }
+
+    @Test
+    public void ensureAcknowledgedKeysClearedByNextCommit() throws Exception {
+        // the rolled back events are taken by another sink, so this sink next takes new events
+        when(channel.take()).thenReturn(keyedEvent("aaaa", "1"), keyedEvent("bbbb", "2"), null,
+                keyedEvent("cccc", "3"), null,
+                keyedEvent("aaaa", "1"), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+        when(httpURLConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK, 503, HttpURLConnection.HTTP_OK);
+
+        HttpSink httpSink = batchingSink(acknowledgedKeysContext());
+
+        httpSink.process();
+        httpSink.process();
+        httpSink.process();
+
+        assert(requests.equals(Arrays.asList("aaaa", "bbbb", "cccc", "aaaa")));
+        verify(sinkCounter, never()).incrementDuplicateSkippedCount();
+    }
+
+    @Test
+    public void ensureCommittedEventsSentAgain() throws Exception {
+        when(channel.take()).thenReturn(keyedEvent("aaaa", "1"), keyedEvent("aaaa", "1"), null);
+        List<String> requests = captureRequests(HttpURLConnection.HTTP_OK);
+
+        Context context = acknowledgedKeysContext();
+        context.put("batchSize", "1");
+        HttpSink httpSink = batchingSink(context);
+
+        httpSink.process();
+        httpSink.process();
+
+        assert(requests.equals(Arrays.asList("aaaa", "aaaa")));
+        verify(sinkCounter, never()).incrementDuplicateSkippedCount();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfAcknowledgedKeysWithoutEventHeader() {
+        Context context = new Context();
+        context.put("endpoint", "http://localhost:8080/endpoint");
+        context.put("acknowledgedKeysSize", "100");
+        new HttpSink().configure(context);
+    }
+
+    @Test
+    public void ensureSingleEventRolledBackOnEntityTooLargeByDefault() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), (Event) null);
+        List<String> requests = captureRequests(413);
+
+        HttpSink httpSink = batchingSink(new Context());
+
+        Status status = httpSink.process();
+
+        assert(status == Status.BACKOFF);
+        assert(requests.equals(Collections.singletonList("one")));
+        assert(chunkedRequests == 0);
+        verify(sinkCounter, never()).incrementOversizeEventCount();
+        verify(transaction).rollback();
+        verify(transaction, never()).commit();
+    }
+
+    @Test
+    public void ensureEntityTooLargeStatusConfigurationUsedByDefault() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), (Event) null);
+        List<String> requests = captureRequests(413);
+
+        Context context = new Context();
+        context.put("rollback.413", "false");
+        context.put("backoff.413", "false");
+        HttpSink httpSink = batchingSink(context);
+
+        Status status = httpSink.process();
+
+        assert(status == Status.READY);
+        assert(requests.equals(Collections.singletonList("one")));
+        verify(transaction).commit();
+        verify(transaction, never()).rollback();
+    }
+
+    @Test
+    public void ensureChunkedEventRolledBackOnEntityTooLargeWithoutDeadLetterDirectory() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), (Event) null);
+        List<String> requests = captureRequests(413);
+
+        Context context = new Context();
+        context.put("oversizeAction", "chunked");
+        HttpSink httpSink = batchingSink(context);
+
+        Status status = httpSink.process();
+
+        assert(status == Status.BACKOFF);
+        assert(requests.equals(Arrays.asList("one", "one")));
+        assert(chunkedRequests == 1);
+        verify(sinkCounter).incrementOversizeEventCount();
+        verify(transaction).rollback();
+        verify(transaction, never()).commit();
+    }
+
+    @Test
+    public void ensureRepeatedChunkedEventRollbacksWarned() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), null, event("one", null), null);
+        captureRequests(413);
+
+        Context context = new Context();
+        context.put("oversizeAction", "chunked");
+        HttpSink httpSink = batchingSink(context);
+
+        httpSink.process();
+        httpSink.process();
+
+        // the first warning is logged and the second suppressed within the interval
+        assert(httpSink.getOversizeRollbackLog().getSuppressedCount() == 1);
+        verify(transaction, times(2)).rollback();
+    }
+
+    @Test
+    public void ensureEntityTooLargeRollbacksNotWarnedByDefault() throws Exception {
+        when(channel.take()).thenReturn(event("one", null), null, event("one", null), null);
+        captureRequests(413);
+
+        HttpSink httpSink = batchingSink(new Context());
+
+        httpSink.process();
+        httpSink.process();
+
+        assert(httpSink.getOversizeRollbackLog().getSuppressedCount() == 0);
+        verify(transaction, times(2)).rollback();
+    }
+
+    @Test
+    public void ensureChunkedEventWrittenToDeadLetterDirectoryOnEntityTooLarge() throws Exception {
+        File deadLetterDirectory = Files.createTempDirectory("dead-letter").toFile();
+        when(channel.take()).thenReturn(event("one", null), (Event) null);
+        captureRequests(413);
+
+        Context context = new Context();
+        context.put("oversizeAction", "chunked");
+        context.put("deadLetterDirectory", deadLetterDirectory.getPath());
+        HttpSink httpSink = batchingSink(context);
+
+        try {
+            httpSink.process();
+
+            File[] deadLetters = deadLetterDirectory.listFiles();
+            assert(chunkedRequests == 1);
+            assert(deadLetters.length == 1);
+            assert(new String(Files.readAllBytes(deadLetters[0].toPath())).equals("one"));
+            verify(transaction).commit();
+        } finally {
+            for (File deadLetter : deadLetterDirectory.listFiles()) {
+                deadLetter.delete();
+            }
+            deadLetterDirectory.delete();
+        }
+    }
+
+    private Event event(String body, String priority) {
+        Event event = new SimpleEvent();
+        event.setBody(body.getBytes());
+        if (priority != null) {
+            event.getHeaders().put("priority", priority);
+        }
+        return event;
+    }
+
+    private Event keyedEvent(String body, String id) {
+        Event event = event(body, null);
+        event.getHeaders().put("id", id);
+        return event;
+    }
+
+    private Context acknowledgedKeysContext() {
+        Context context = new Context();
+        context.put("batchSize", "10");
+        context.put("maxRequestBytes", "5");
+        context.put("idempotencyEventHeader", "id");
+        context.put("acknowledgedKeysSize", "100");
+        context.put("rollback.200", "false");
+        context.put("backoff.200", "false");
+        return context;
+    }
+
+    private List<String> captureRequests(int httpStatus) throws IOException {
+        List<String> requests = new ArrayList<>();
+        when(httpURLConnection.getOutputStream()).thenAnswer(invocation -> new ByteArrayOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    requests.add(toString());
+                    closed = true;
+                }
+            }
+        });
+        when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        when(httpURLConnection.getResponseCode()).thenReturn(httpStatus);
+        return requests;
+    }
+
+    private HttpSink batchingSink(Context context) {
+        context.put("endpoint", "http://localhost:8080/endpoint");
+
+        HttpSink httpSink = new HttpSink() {
+            @Override
+            HttpURLConnection getConnection(String idempotencyKey) throws IOException {
+                idempotencyKeys.add(idempotencyKey);
+                return httpURLConnection;
+            }
+
+            @Override
+            HttpURLConnection getChunkedConnection(String idempotencyKey) throws IOException {
+                chunkedRequests++;
+                return httpURLConnection;
+            }
+        };
+        httpSink.configure(context);
+        httpSink.setChannel(channel);
+        httpSink.setSinkCounter(sinkCounter);
+
+        when(channel.getTransaction()).thenReturn(transaction);
+        return httpSink;
+    }
+
+    private Context hedgingContext(String hedgePercentile) {
+        Context context = new Context();
+        context.put("endpoint", "http://localhost:8080/endpoint");
+        context.put("hedgeEnabled", "true");
+        context.put("hedgeEndpoint", "http://localhost:8081/endpoint");
+        context.put("hedgePercentile", hedgePercentile);
+        return context;
+    }
+
+    private HttpSink namedSink(String name, Context context) {
+        HttpSink httpSink = new HttpSink();
+        httpSink.setName(name);
+        httpSink.configure(context);
+        httpSink.setSinkCounter(sinkCounter);
+        return httpSink;
+    }
+
+    private HttpSink hedgingSink(Context context) {
+        context.put("endpoint", "http://localhost:8080/endpoint");
+
+        HttpSink httpSink = new HttpSink() {
+            @Override
+            HttpURLConnection getConnection(String idempotencyKey) throws IOException {
+                return httpURLConnection;
+            }
+
+            @Override
+            HttpURLConnection getHedgeConnection(String idempotencyKey) throws IOException {
+                return hedgeURLConnection;
+            }
+        };
+        httpSink.configure(context);
+        httpSink.setChannel(channel);
+        httpSink.setSinkCounter(sinkCounter);
+        httpSink.start();
+
+        when(channel.getTransaction()).thenReturn(transaction);
+        return httpSink;
+    }
+
     private void executeWithMocks(boolean commit) throws Exception {
         Context context = new Context();
         executeWithMocks(commit, Status.BACKOFF, false, false, context, HttpURLConnection.HTTP_OK);
@@ -240,7 +1095,7 @@ public class HttpSinkTest {
 
         HttpSink httpSink = new HttpSink() {
             @Override
-            HttpURLConnection getConnection() throws IOException {
+            HttpURLConnection getConnection(String idempotencyKey) throws IOException {
                 return httpURLConnection;
             }
         };
@@ -260,7 +1115,7 @@ public class HttpSinkTest {
         inOrder(transaction).verify(transaction).begin();
 
         if (expectedIncrementAttemptMetrics) {
-            inOrder(sinkCounter).verify(sinkCounter).incrementEventDrainAttemptCount();
+            inOrder(sinkCounter).verify(sinkCounter).addToEventDrainAttemptCount(1);
         }
 
         if (expectedCommit) {
@@ -270,7 +1125,7 @@ public class HttpSinkTest {
         }
 
         if (expectedIncrementSuccessMetrics) {
-            inOrder(sinkCounter).verify(sinkCounter).incrementEventDrainSuccessCount();
+            inOrder(sinkCounter).verify(sinkCounter).addToEventDrainSuccessCount(1);
         }
 
         inOrder(transaction).verify(transaction).close();
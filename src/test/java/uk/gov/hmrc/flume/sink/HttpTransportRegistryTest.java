@@ -0,0 +1,78 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.junit.Test;
+
+import java.net.URL;
+
+public class HttpTransportRegistryTest {
+
+    @Test
+    public void ensureSameDestinationAndSettingsShareTransport() throws Exception {
+        HttpTransportRegistry registry = new HttpTransportRegistry();
+
+        HttpTransport first = registry.acquire(null, new URL("http://localhost:8080/one"), 0, 0, 0);
+        HttpTransport second = registry.acquire(null, new URL("http://LOCALHOST:8080/two"), 0, 0, 0);
+
+        assert(first == second);
+        assert(registry.size() == 1);
+    }
+
+    @Test
+    public void ensureDifferentSettingsUseSeparateTransports() throws Exception {
+        HttpTransportRegistry registry = new HttpTransportRegistry();
+
+        HttpTransport first = registry.acquire(null, new URL("https://localhost/endpoint"), 0, 0, 0);
+        HttpTransport second = registry.acquire(null, new URL("https://localhost/endpoint"), 0, 100, 0);
+        HttpTransport third = registry.acquire(null, new URL("https://localhost:8443/endpoint"), 0, 0, 0);
+
+        assert(first != second);
+        assert(first != third);
+        assert(registry.size() == 3);
+    }
+
+    @Test
+    public void ensureTransportRemovedWhenLastReferenceReleased() throws Exception {
+        HttpTransportRegistry registry = new HttpTransportRegistry();
+
+        HttpTransport first = registry.acquire(null, new URL("http://localhost:8080/endpoint"), 0, 0, 0);
+        HttpTransport second = registry.acquire(null, new URL("http://localhost:8080/endpoint"), 0, 0, 0);
+
+        registry.release(null, first);
+        assert(registry.size() == 1);
+
+        registry.release(null, second);
+        assert(registry.size() == 0);
+
+        HttpTransport third = registry.acquire(null, new URL("http://localhost:8080/endpoint"), 0, 0, 0);
+        assert(third != first);
+    }
+
+    @Test
+    public void ensureOwnedTransportsNotShared() throws Exception {
+        HttpTransportRegistry registry = new HttpTransportRegistry();
+
+        HttpTransport first = registry.acquire("one", new URL("http://localhost:8080/endpoint"), 0, 0, 0);
+        HttpTransport second = registry.acquire("two", new URL("http://localhost:8080/endpoint"), 0, 0, 0);
+        HttpTransport shared = registry.acquire(null, new URL("http://localhost:8080/endpoint"), 0, 0, 0);
+
+        assert(first != second);
+        assert(first != shared);
+        assert(registry.size() == 3);
+    }
+
+    @Test
+    public void ensureReleasedTransportTakenOverWithinLinger() throws Exception {
+        HttpTransportRegistry registry = new HttpTransportRegistry(200);
+
+        HttpTransport first = registry.acquire("sink", new URL("http://localhost:8080/endpoint"), 0, 0, 0);
+        registry.release("sink", first);
+        HttpTransport second = registry.acquire("sink", new URL("http://localhost:8080/endpoint"), 0, 0, 0);
+
+        assert(second == first);
+
+        registry.release("sink", second);
+        assert(registry.size() == 1);
+        Thread.sleep(1000);
+        assert(registry.size() == 0);
+    }
+}
@@ -0,0 +1,30 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.junit.Test;
+
+import java.net.URL;
+
+public class HttpTransportTest {
+
+    @Test
+    public void ensureJvmDefaultSocketFactoryUsedWithoutSessionSettings() throws Exception {
+        HttpTransport transport = new HttpTransport(new URL("https://localhost/endpoint"), 0, 0, 0);
+        transport.start();
+        try {
+            assert(transport.getSslSocketFactory() == null);
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @Test
+    public void ensureOwnSocketFactoryUsedWithSessionSettings() throws Exception {
+        HttpTransport transport = new HttpTransport(new URL("https://localhost/endpoint"), 0, 100, 0);
+        transport.start();
+        try {
+            assert(transport.getSslSocketFactory() != null);
+        } finally {
+            transport.stop();
+        }
+    }
+}
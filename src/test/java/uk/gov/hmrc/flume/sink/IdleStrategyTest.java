@@ -0,0 +1,31 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class IdleStrategyTest {
+
+    @Test
+    public void ensureParkTimeDoublesUpToMaximumLatency() {
+        IdleStrategy strategy = new IdleStrategy(0, 0, 1);
+
+        assert(strategy.parkNanos(0) == 1000);
+        assert(strategy.parkNanos(1) == 2000);
+        assert(strategy.parkNanos(9) == 512000);
+        assert(strategy.parkNanos(10) == TimeUnit.MILLISECONDS.toNanos(1));
+        assert(strategy.parkNanos(1000) == TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void ensureSpinningPollsDoNotWait() {
+        IdleStrategy strategy = new IdleStrategy(1000, 0, 1000);
+
+        long start = System.nanoTime();
+        for (int poll = 0; poll < 1000; poll++) {
+            strategy.idle(poll);
+        }
+
+        assert(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+}
@@ -0,0 +1,148 @@
+package uk.gov.hmrc.flume.sink;
+
+import static org.mockito.Mockito.*;
+
+import org.apache.flume.Context;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Sink;
+import org.apache.flume.Sink.Status;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LatencyAwareSinkProcessorTest {
+
+    @Mock
+    private HttpSink fastSink;
+
+    @Mock
+    private HttpSink slowSink;
+
+    @Mock
+    private HttpSink failingSink;
+
+    @Mock
+    private Sink otherSink;
+
+    @Test
+    public void ensureFastestSinkUsedWithEwmaSelector() throws Exception {
+        whenStats(fastSink, 1000000L, 0);
+        whenStats(slowSink, 50000000L, 0);
+        when(fastSink.process()).thenReturn(Status.READY);
+
+        LatencyAwareSinkProcessor processor = processor("ewma", slowSink, fastSink);
+
+        Status status = processor.process();
+
+        assert(status == Status.READY);
+        verify(fastSink).process();
+        verify(slowSink, never()).process();
+    }
+
+    @Test
+    public void ensureFailingSinkAvoidedWithPowerOfTwoChoicesSelector() throws Exception {
+        whenStats(fastSink, 1000000L, 0);
+        whenStats(failingSink, 500000L, 10);
+        when(fastSink.process()).thenReturn(Status.READY);
+
+        LatencyAwareSinkProcessor processor = processor("p2c", failingSink, fastSink);
+
+        for (int i = 0; i < 10; i++) {
+            processor.process();
+        }
+        verify(fastSink, times(10)).process();
+        verify(failingSink, never()).process();
+    }
+
+    @Test
+    public void ensureFastFailingSinkAvoided() throws Exception {
+        whenStats(slowSink, 20000000L, 0);
+        whenStats(failingSink, 1000000L, 10);
+        when(slowSink.process()).thenReturn(Status.READY);
+
+        for (String selector : Arrays.asList("ewma", "p2c")) {
+            LatencyAwareSinkProcessor processor = processor(selector, failingSink, slowSink);
+            for (int i = 0; i < 10; i++) {
+                processor.process();
+            }
+        }
+        verify(slowSink, times(20)).process();
+        verify(failingSink, never()).process();
+    }
+
+    @Test
+    public void ensureNextSinkTriedOnBackoff() throws Exception {
+        whenStats(fastSink, 1000000L, 0);
+        whenStats(slowSink, 50000000L, 0);
+        when(fastSink.process()).thenReturn(Status.BACKOFF);
+        when(slowSink.process()).thenReturn(Status.READY);
+
+        LatencyAwareSinkProcessor processor = processor("ewma", slowSink, fastSink);
+
+        Status status = processor.process();
+
+        assert(status == Status.READY);
+        verify(fastSink).process();
+        verify(slowSink).process();
+    }
+
+    @Test
+    public void ensureBackoffWhenAllSinksBackoff() throws Exception {
+        whenStats(fastSink, 1000000L, 0);
+        whenStats(slowSink, 50000000L, 0);
+        when(fastSink.process()).thenReturn(Status.BACKOFF);
+        when(slowSink.process()).thenThrow(new EventDeliveryException());
+
+        LatencyAwareSinkProcessor processor = processor("ewma", slowSink, fastSink);
+
+        Status status = processor.process();
+
+        assert(status == Status.BACKOFF);
+    }
+
+    @Test(expected = EventDeliveryException.class)
+    public void ensureExceptionWhenAllSinksFail() throws Exception {
+        whenStats(fastSink, 1000000L, 0);
+        whenStats(slowSink, 50000000L, 0);
+        when(fastSink.process()).thenThrow(new EventDeliveryException());
+        when(slowSink.process()).thenThrow(new EventDeliveryException());
+
+        processor("ewma", slowSink, fastSink).process();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfSinkNotHttpSink() {
+        processor("p2c", fastSink, otherSink);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureExceptionIfSelectorUnknown() {
+        processor("random", fastSink, slowSink);
+    }
+
+    private void whenStats(HttpSink sink, long latencyNanos, int failures) {
+        HttpSinkStats stats = new HttpSinkStats();
+        for (int i = 0; i < 10; i++) {
+            if (i < failures) {
+                stats.recordFailure(latencyNanos);
+            } else {
+                stats.recordSuccess(latencyNanos);
+            }
+        }
+        when(sink.getStats()).thenReturn(stats);
+    }
+
+    private LatencyAwareSinkProcessor processor(String selector, Sink... sinks) {
+        Context context = new Context();
+        context.put("selector", selector);
+
+        LatencyAwareSinkProcessor processor = new LatencyAwareSinkProcessor();
+        processor.setSinks(Arrays.asList(sinks));
+        processor.configure(context);
+        return processor;
+    }
+}
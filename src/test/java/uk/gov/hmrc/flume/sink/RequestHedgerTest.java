@@ -0,0 +1,55 @@
+package uk.gov.hmrc.flume.sink;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RequestHedgerTest {
+
+    @Test
+    public void ensureNoHedgingUntilEnoughSamples() {
+        RequestHedger hedger = new RequestHedger(95, 0, 5);
+        for (int i = 1; i < RequestHedger.MIN_SAMPLES; i++) {
+            hedger.recordPrimaryLatency(1000);
+        }
+        assert(hedger.getHedgeDelayNanos() == -1);
+
+        hedger.recordPrimaryLatency(1000);
+        assert(hedger.getHedgeDelayNanos() >= 1000);
+    }
+
+    @Test
+    public void ensureDelayIsConfiguredPercentile() {
+        RequestHedger hedger = new RequestHedger(90, 0, 5);
+        for (int i = 1; i <= 100; i++) {
+            hedger.recordPrimaryLatency(i * 1000L);
+        }
+
+        long delay = hedger.getHedgeDelayNanos();
+        assert(delay >= 90000 && delay < 100000);
+    }
+
+    @Test
+    public void ensureDelayIsAtLeastMinimum() {
+        RequestHedger hedger = new RequestHedger(95, 10, 5);
+        for (int i = 0; i < RequestHedger.MIN_SAMPLES; i++) {
+            hedger.recordPrimaryLatency(1000);
+        }
+
+        assert(hedger.getHedgeDelayNanos() == TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void ensureHedgesLimitedByBudget() {
+        RequestHedger hedger = new RequestHedger(95, 0, 5);
+        int hedges = 0;
+        for (int i = 0; i < 1000; i++) {
+            hedger.recordRequest();
+            if (hedger.tryAcquireBudget()) {
+                hedges++;
+            }
+        }
+
+        assert(hedges == 50);
+    }
+}